@@ -0,0 +1,35 @@
+package scot.massie.mc.ninti.core;
+
+import net.minecraft.command.CommandSource;
+import scot.massie.lib.permissions.PermissionStatus;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Stands in for NintiCore's Permissions in the benchmarks. Every player has every permission, with whatever permission
+ * arguments are set here.
+ */
+public final class Permissions
+{
+    private static final Map<String, String> permissionArgs = new ConcurrentHashMap<>();
+
+    private Permissions()
+    {}
+
+    public static void setPermissionArg(String permission, String permissionArg)
+    { permissionArgs.put(permission, permissionArg); }
+
+    public static void clearPermissionArgs()
+    { permissionArgs.clear(); }
+
+    public static PermissionStatus getPlayerPermissionStatus(UUID playerId, String permission)
+    { return new PermissionStatus(permission, true, permissionArgs.get(permission)); }
+
+    public static String getPlayerPermissionArg(UUID playerId, String permission)
+    { return permissionArgs.get(permission); }
+
+    public static boolean commandSourceHasPermission(CommandSource source, String... permissions)
+    { return true; }
+}
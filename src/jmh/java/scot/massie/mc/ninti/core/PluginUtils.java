@@ -0,0 +1,19 @@
+package scot.massie.mc.ninti.core;
+
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.UUID;
+
+// Stands in for NintiCore's PluginUtils in the benchmarks. There's no server, so every player is offline.
+public final class PluginUtils
+{
+    private PluginUtils()
+    {}
+
+    public static MinecraftServer getServer()
+    { return null; }
+
+    public static ServerPlayerEntity getOnlinePlayer(UUID playerId)
+    { return null; }
+}
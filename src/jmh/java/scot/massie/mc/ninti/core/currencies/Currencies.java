@@ -0,0 +1,28 @@
+package scot.massie.mc.ninti.core.currencies;
+
+import java.util.Map;
+import java.util.UUID;
+
+// Stands in for NintiCore's Currencies in the benchmarks. Every player can afford everything.
+public final class Currencies
+{
+    public static class UnrecognisedCurrencyException extends Exception
+    {
+        public UnrecognisedCurrencyException(String currencyName)
+        {
+            super("Unrecognised currency: " + currencyName);
+            this.currencyName = currencyName;
+        }
+
+        private final String currencyName;
+
+        public String getCurrencyName()
+        { return currencyName; }
+    }
+
+    private Currencies()
+    {}
+
+    public static boolean chargePlayer(UUID playerId, Map<String, Double> costs) throws UnrecognisedCurrencyException
+    { return true; }
+}
@@ -0,0 +1,31 @@
+package scot.massie.mc.ninti.core.zones;
+
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+// Stands in for NintiCore's Zone in the benchmarks, as a single box from (x1, z1) to (x2, z2) in one world.
+public class Zone
+{
+    public Zone(String name, String worldId, double x1, double z1, double x2, double z2)
+    {
+        this.name = name;
+        this.worldId = worldId;
+        this.minX = Math.min(x1, x2);
+        this.minZ = Math.min(z1, z2);
+        this.maxX = Math.max(x1, x2);
+        this.maxZ = Math.max(z1, z2);
+    }
+
+    private final String name;
+    private final String worldId;
+    private final double minX, minZ, maxX, maxZ;
+
+    public String getName()
+    { return name; }
+
+    public boolean contains(EntityLocation location)
+    {
+        return location.getWorldId().equals(worldId)
+               && location.getX() >= minX && location.getX() <= maxX
+               && location.getZ() >= minZ && location.getZ() <= maxZ;
+    }
+}
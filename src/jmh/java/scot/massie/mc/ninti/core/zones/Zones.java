@@ -0,0 +1,30 @@
+package scot.massie.mc.ninti.core.zones;
+
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Stands in for NintiCore's Zones in the benchmarks, holding whichever zones are set here.
+public final class Zones
+{
+    private static volatile List<Zone> zones = Collections.emptyList();
+
+    private Zones()
+    {}
+
+    public static void setZones(List<Zone> zones)
+    { Zones.zones = new ArrayList<>(zones); }
+
+    public static List<Zone> getZonesAt(EntityLocation location)
+    {
+        List<Zone> result = new ArrayList<>();
+
+        for(Zone zone : zones)
+            if(zone.contains(location))
+                result.add(zone);
+
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.mc.ninti.core.NintiCore;
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Homes, players, and homes files for the benchmarks.
+final class BenchmarkHomes
+{
+    static final String worldId = "minecraft:overworld";
+
+    private BenchmarkHomes()
+    {}
+
+    static UUID getPlayerId(int index)
+    { return new UUID(0x6e696e7469686f6dL, index); }
+
+    // Spread across a 1000-chunk-wide square, a home a chunk.
+    static EntityLocation getLocation(int index)
+    { return new EntityLocation(worldId, (index % 1000) * 16.0 + 8, 64, (index / 1000) * 16.0 + 8, 0, 0); }
+
+    // Deletes every homes file, changes file, journal, and players' own homes files.
+    static void resetDataFolder() throws IOException
+    {
+        Files.createDirectories(NintiCore.DATA_FOLDER);
+
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(NintiCore.DATA_FOLDER, "homes*"))
+        {
+            for(Path file : files)
+            {
+                try(Stream<Path> contents = Files.walk(file))
+                {
+                    for(Path path : (Iterable<Path>)contents.sorted(Comparator.reverseOrder())::iterator)
+                        Files.delete(path);
+                }
+            }
+        }
+    }
+
+    // Writes a CSV homes file with the given number of homes across players, for Homes.load to read.
+    static void writeHomesFile(int homeCount, int homesPerPlayer) throws IOException
+    {
+        Map<UUID, List<PlayerHome>> homes = new LinkedHashMap<>();
+
+        for(int i = 0; i < homeCount; i++)
+        {
+            UUID playerId = getPlayerId(i / homesPerPlayer);
+            homes.computeIfAbsent(playerId, id -> new ArrayList<>(homesPerPlayer))
+                 .add(new PlayerHome(playerId, "home" + (i % homesPerPlayer), getLocation(i)));
+        }
+
+        HomesCsvFile.write(NintiCore.DATA_FOLDER.resolve("homes.csv"), homes);
+    }
+}
@@ -0,0 +1,81 @@
+package scot.massie.mc.ninti.homes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Homes.getFor and Homes.getForIfPresent from several threads at once, for random players with homes. Where lazily
+ * loading, players' homes are loaded from the mapped homes file as they're first looked up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class GetForBenchmark
+{
+    @Param({"1000", "100000"})
+    public int players;
+
+    @Param({"false", "true"})
+    public boolean lazyLoading;
+
+    private UUID[] playerIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        BenchmarkHomes.resetDataFolder();
+        BenchmarkHomes.writeHomesFile(players, 1);
+
+        // Only the binary homes file can be lazily loaded.
+        Homes.setSaveFormat(Homes.SaveFormat.BINARY);
+        Homes.setLazyLoading(false);
+        Homes.load();
+        Homes.compact();
+        Homes.setLazyLoading(lazyLoading);
+        Homes.load();
+
+        playerIds = new UUID[players];
+
+        for(int i = 0; i < players; i++)
+            playerIds[i] = BenchmarkHomes.getPlayerId(i);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Homes.shutdown();
+        Homes.setLazyLoading(false);
+        BenchmarkHomes.resetDataFolder();
+    }
+
+    private UUID getRandomPlayerId()
+    { return playerIds[ThreadLocalRandom.current().nextInt(playerIds.length)]; }
+
+    @Benchmark
+    public PlayerHomesList getFor()
+    { return Homes.getFor(getRandomPlayerId()); }
+
+    @Benchmark
+    public PlayerHomesList getForIfPresent()
+    { return Homes.getForIfPresent(getRandomPlayerId()); }
+}
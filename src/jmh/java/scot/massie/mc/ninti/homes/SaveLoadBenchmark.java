@@ -0,0 +1,65 @@
+package scot.massie.mc.ninti.homes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Homes.save and Homes.load of a homes file with the given number of rows, in each format. Saving compacts, so every
+ * home is written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class SaveLoadBenchmark
+{
+    private static final int homesPerPlayer = 10;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"CSV", "BINARY"})
+    public Homes.SaveFormat format;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        BenchmarkHomes.resetDataFolder();
+        BenchmarkHomes.writeHomesFile(rows, homesPerPlayer);
+        Homes.setSaveFormat(format);
+        Homes.load();
+
+        // Rewrites the homes file in the format being benchmarked.
+        Homes.compact();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Homes.shutdown();
+        BenchmarkHomes.resetDataFolder();
+    }
+
+    @Benchmark
+    public int save()
+    { return Homes.compact(); }
+
+    @Benchmark
+    public void load()
+    { Homes.load(); }
+}
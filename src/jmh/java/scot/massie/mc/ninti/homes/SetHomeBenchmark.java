@@ -0,0 +1,78 @@
+package scot.massie.mc.ninti.homes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scot.massie.mc.ninti.core.Permissions;
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * PlayerHomesList.requestSetHome for a player with the given number of homes, each call replacing one of them, so
+ * every cap is checked against a player at their limit and the number of homes stays the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetHomeBenchmark
+{
+    @Param({"1", "10", "100", "1000"})
+    public int homeCount;
+
+    private PlayerHomesList homes;
+    private String[] homeNames;
+    private EntityLocation location;
+    private int nextHome = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        BenchmarkHomes.resetDataFolder();
+        Permissions.setPermissionArg(NintiHomes.PERMISSION_HOMES_ADD, Integer.toString(homeCount));
+        Permissions.setPermissionArg(CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_ADD_INWORLD,
+                                                               BenchmarkHomes.worldId),
+                                     Integer.toString(homeCount));
+        Homes.load();
+
+        UUID playerId = BenchmarkHomes.getPlayerId(0);
+        homes = Homes.getFor(playerId);
+        homeNames = new String[homeCount];
+        location = BenchmarkHomes.getLocation(0);
+
+        for(int i = 0; i < homeCount; i++)
+        {
+            homeNames[i] = "home" + i;
+            homes.setHome(homeNames[i], BenchmarkHomes.getLocation(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Homes.shutdown();
+        Permissions.clearPermissionArgs();
+        BenchmarkHomes.resetDataFolder();
+    }
+
+    @Benchmark
+    public PlayerHome requestSetHome() throws Exception
+    {
+        nextHome = (nextHome + 1) % homeCount;
+        return homes.requestSetHome(homeNames[nextHome], location);
+    }
+}
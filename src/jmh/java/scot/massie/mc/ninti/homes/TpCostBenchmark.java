@@ -0,0 +1,86 @@
+package scot.massie.mc.ninti.homes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scot.massie.mc.ninti.core.Permissions;
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+import scot.massie.mc.ninti.core.zones.Zone;
+import scot.massie.mc.ninti.core.zones.Zones;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * PlayerHome.getCostsToTpHere for a home in the given number of zones, where the world and each zone charge the given
+ * number of currencies, each by its own equation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TpCostBenchmark
+{
+    @Param({"0", "1", "10"})
+    public int zoneCount;
+
+    @Param({"1", "4"})
+    public int equationCount;
+
+    private PlayerHome home;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        EntityLocation location = BenchmarkHomes.getLocation(0);
+        StringBuilder costs = new StringBuilder();
+
+        for(int i = 0; i < equationCount; i++)
+            costs.append(i == 0 ? "" : ", ").append("currency").append(i).append(": 10 + distance * ").append(i + 1);
+
+        Permissions.setPermissionArg(CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_TP_TOWORLD,
+                                                               BenchmarkHomes.worldId),
+                                     costs.toString());
+
+        List<Zone> zones = new ArrayList<>(zoneCount);
+
+        for(int i = 0; i < zoneCount; i++)
+        {
+            Zone zone = new Zone("zone" + i, BenchmarkHomes.worldId, -1000, -1000, 1000, 1000);
+            zones.add(zone);
+            Permissions.setPermissionArg(CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_TP_TOZONE,
+                                                                   zone.getName()),
+                                         costs.toString());
+        }
+
+        Zones.setZones(zones);
+        home = new PlayerHome(BenchmarkHomes.getPlayerId(0), "", location);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Zones.setZones(Collections.emptyList());
+        Permissions.clearPermissionArgs();
+        TpCostEquations.clearCache();
+    }
+
+    @Benchmark
+    public Map<String, Double> getCostsToTpHere()
+    { return home.getCostsToTpHere(); }
+}
@@ -0,0 +1,90 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.lib.permissions.PermissionStatus;
+import scot.massie.mc.ninti.core.Permissions;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The statuses of permissions checked by homes, cached per player. Only online players' permissions are cached, and a
+ * player's cached permissions are dropped when they log in or out, and after maxAgeNanos. Changes to permissions are
+ * picked up by then, or straight away where Homes.onPermissionsChanged is called.
+ */
+final class CachedPermissions
+{
+    private static final class PlayerStatuses
+    {
+        final long cachedAt = System.nanoTime();
+        final Map<String, PermissionStatus> byPermission = new ConcurrentHashMap<>();
+
+        boolean isExpired()
+        { return System.nanoTime() - cachedAt > maxAgeNanos; }
+    }
+
+    private static final long maxAgeNanos = TimeUnit.SECONDS.toNanos(15);
+    private static final Map<UUID, PlayerStatuses> statuses = new ConcurrentHashMap<>();
+
+    // Permission nodes by prefix and then by world ID or zone name, so they're only built once.
+    private static final Map<String, Map<String, String>> nodes = new ConcurrentHashMap<>();
+
+    private CachedPermissions()
+    {}
+
+    // Gets the permission node made of the given prefix and a world ID or zone name, as in "prefix.worldId".
+    public static String getNode(String prefix, String suffix)
+    {
+        return nodes.computeIfAbsent(prefix, p -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(suffix, s -> prefix + "." + s);
+    }
+
+    // Returns null where the player isn't online.
+    private static Map<String, PermissionStatus> getCachedStatuses(UUID playerId)
+    {
+        PlayerStatuses cached = statuses.get(playerId);
+
+        if(cached != null && !cached.isExpired())
+            return cached.byPermission;
+
+        cached = statuses.compute(playerId, (id, existing) ->
+        {
+            // Checked here rather than beforehand, so a player logging out meanwhile can't be left with an entry.
+            if(!Homes.isOnline(id))
+                return null;
+
+            return existing == null || existing.isExpired() ? new PlayerStatuses() : existing;
+        });
+
+        return cached == null ? null : cached.byPermission;
+    }
+
+    public static PermissionStatus getStatus(UUID playerId, String permission)
+    {
+        Map<String, PermissionStatus> cached = getCachedStatuses(playerId);
+
+        if(cached == null)
+            return Permissions.getPlayerPermissionStatus(playerId, permission);
+
+        return cached.computeIfAbsent(permission, p -> Permissions.getPlayerPermissionStatus(playerId, p));
+    }
+
+    public static String getArg(UUID playerId, String permission)
+    {
+        Map<String, PermissionStatus> cached = getCachedStatuses(playerId);
+
+        if(cached == null)
+            return Permissions.getPlayerPermissionArg(playerId, permission);
+
+        PermissionStatus status = cached.computeIfAbsent(permission,
+                                                         p -> Permissions.getPlayerPermissionStatus(playerId, p));
+        return status.hasPermission() ? status.getPermissionArg() : null;
+    }
+
+    public static void invalidate(UUID playerId)
+    { statuses.remove(playerId); }
+
+    public static void invalidateAll()
+    { statuses.clear(); }
+}
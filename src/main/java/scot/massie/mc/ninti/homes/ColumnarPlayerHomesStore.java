@@ -0,0 +1,247 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Keeps homes as rows across parallel arrays rather than as PlayerHome objects. PlayerHome objects are created as
+ * they're asked for, and aren't kept. World IDs, and home names where Homes is interning them, are the canonical copies
+ * from Homes, so rows share them.
+ *
+ * Rows are kept sorted by home name, in homeNameOrder, so homes are looked up by name by binary search.
+ */
+final class ColumnarPlayerHomesStore implements PlayerHomesStore
+{
+    private static final int initialCapacity = 4;
+
+    private final UUID playerId;
+    private int size = 0;
+    private String[] names = new String[initialCapacity];
+    private String[] worldIds = new String[initialCapacity];
+    private double[] xs = new double[initialCapacity];
+    private double[] ys = new double[initialCapacity];
+    private double[] zs = new double[initialCapacity];
+    private double[] pitches = new double[initialCapacity];
+    private double[] yaws = new double[initialCapacity];
+    private final Map<String, Integer> homeCountsByWorld = new HashMap<>();
+
+    public ColumnarPlayerHomesStore(UUID playerId)
+    {
+        this.playerId = playerId;
+    }
+
+    private PlayerHome getHome(int row)
+    {
+        EntityLocation location
+                = new EntityLocation(worldIds[row], xs[row], ys[row], zs[row], pitches[row], yaws[row]);
+
+        return new PlayerHome(playerId, names[row], location);
+    }
+
+    // As Arrays.binarySearch - returns (-(insertion point) - 1) where there's no home by that name.
+    private int indexOf(String homeName)
+    {
+        int low = 0;
+        int high = size - 1;
+
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int comparison = homeNameOrder.compare(names[mid], homeName);
+
+            if(comparison < 0)
+                low = mid + 1;
+            else if(comparison > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -(low + 1);
+    }
+
+    private void setRow(int row, PlayerHome home)
+    {
+        EntityLocation location = home.getLocation();
+        names[row] = Homes.internHomeName(home.getName());
+        worldIds[row] = Homes.internWorldId(location.getWorldId());
+        homeCountsByWorld.merge(worldIds[row], 1, Integer::sum);
+        xs[row] = location.getX();
+        ys[row] = location.getY();
+        zs[row] = location.getZ();
+        pitches[row] = location.getPitch();
+        yaws[row] = location.getYaw();
+    }
+
+    // Moves the rows from the given row on by the given number of rows, growing the arrays where needed.
+    private void shiftRows(int fromRow, int by)
+    {
+        if(size + by > names.length)
+        {
+            int capacity = Math.max(size + by, names.length + (names.length >> 1));
+            names = Arrays.copyOf(names, capacity);
+            worldIds = Arrays.copyOf(worldIds, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            pitches = Arrays.copyOf(pitches, capacity);
+            yaws = Arrays.copyOf(yaws, capacity);
+        }
+
+        int toMove = size - fromRow;
+        System.arraycopy(names, fromRow, names, fromRow + by, toMove);
+        System.arraycopy(worldIds, fromRow, worldIds, fromRow + by, toMove);
+        System.arraycopy(xs, fromRow, xs, fromRow + by, toMove);
+        System.arraycopy(ys, fromRow, ys, fromRow + by, toMove);
+        System.arraycopy(zs, fromRow, zs, fromRow + by, toMove);
+        System.arraycopy(pitches, fromRow, pitches, fromRow + by, toMove);
+        System.arraycopy(yaws, fromRow, yaws, fromRow + by, toMove);
+        size += by;
+
+        // Rows left past the end by moving rows back aren't read, but mustn't keep their strings from being collected.
+        if(by < 0)
+        {
+            Arrays.fill(names, size, size - by, null);
+            Arrays.fill(worldIds, size, size - by, null);
+        }
+    }
+
+    // Must be called before the row is overwritten or removed.
+    private void removeFromWorldCount(int row)
+    { homeCountsByWorld.computeIfPresent(worldIds[row], (worldId, count) -> count == 1 ? null : count - 1); }
+
+    @Override
+    public int size()
+    { return size; }
+
+    @Override
+    public boolean isEmpty()
+    { return size == 0; }
+
+    @Override
+    public PlayerHome get(String homeName)
+    {
+        int row = indexOf(homeName);
+        return row < 0 ? null : getHome(row);
+    }
+
+    @Override
+    public PlayerHome put(PlayerHome home)
+    {
+        int row = indexOf(home.getName());
+
+        if(row >= 0)
+        {
+            PlayerHome replaced = getHome(row);
+            removeFromWorldCount(row);
+            setRow(row, home);
+            return replaced;
+        }
+
+        row = -(row + 1);
+        shiftRows(row, 1);
+        setRow(row, home);
+        return null;
+    }
+
+    @Override
+    public PlayerHome remove(String homeName)
+    {
+        int row = indexOf(homeName);
+
+        if(row < 0)
+            return null;
+
+        PlayerHome removed = getHome(row);
+        removeFromWorldCount(row);
+        shiftRows(row + 1, -1);
+        return removed;
+    }
+
+    @Override
+    public void clear()
+    {
+        size = 0;
+        names = new String[initialCapacity];
+        worldIds = new String[initialCapacity];
+        xs = new double[initialCapacity];
+        ys = new double[initialCapacity];
+        zs = new double[initialCapacity];
+        pitches = new double[initialCapacity];
+        yaws = new double[initialCapacity];
+        homeCountsByWorld.clear();
+    }
+
+    @Override
+    public List<PlayerHome> getAll()
+    {
+        List<PlayerHome> result = new ArrayList<>(size);
+
+        for(int row = 0; row < size; row++)
+            result.add(getHome(row));
+
+        return result;
+    }
+
+    @Override
+    public List<String> getNames()
+    {
+        List<String> result = new ArrayList<>(size);
+
+        for(int row = 0; row < size; row++)
+            result.add(names[row]);
+
+        return result;
+    }
+
+    @Override
+    public List<String> getNamesStartingWith(String prefix)
+    {
+        List<String> result = new ArrayList<>();
+        int row = indexOf(prefix.toUpperCase(Locale.ROOT));
+
+        // Upper case sorts before lower case, so this is the first row whose name may start with the prefix.
+        for(row = row < 0 ? -(row + 1) : row; row < size; row++)
+        {
+            String homeName = names[row];
+
+            if(!homeName.regionMatches(true, 0, prefix, 0, prefix.length()))
+                break;
+
+            result.add(homeName);
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<PlayerHome> getInWorld(String worldId)
+    {
+        int count = countInWorld(worldId);
+        List<PlayerHome> result = new ArrayList<>(count);
+
+        for(int row = 0; result.size() < count; row++)
+            if(worldIds[row].equals(worldId))
+                result.add(getHome(row));
+
+        return result;
+    }
+
+    @Override
+    public int countInWorld(String worldId)
+    {
+        Integer count = homeCountsByWorld.get(worldId);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public List<String> getWorldIds()
+    { return new ArrayList<>(homeCountsByWorld.keySet()); }
+}
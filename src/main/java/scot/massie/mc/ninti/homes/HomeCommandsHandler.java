@@ -1,28 +1,26 @@
 package scot.massie.mc.ninti.homes;
 
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import net.minecraft.command.CommandSource;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.entity.player.ServerPlayerEntity;
-import net.minecraftforge.common.UsernameCache;
 import scot.massie.mc.ninti.core.Permissions;
-import scot.massie.mc.ninti.core.currencies.Currencies;
-import scot.massie.mc.ninti.core.exceptions.NoSuchWorldException;
-import scot.massie.mc.ninti.core.exceptions.PlayerMissingPermissionException;
 import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
-import scot.massie.mc.ninti.homes.Exceptions.CouldNotAffordToTpHomeException;
-import scot.massie.mc.ninti.homes.Exceptions.ServerHomeCapReachedException;
-import scot.massie.mc.ninti.homes.Exceptions.WorldHomeCapReachedException;
-import scot.massie.mc.ninti.homes.Exceptions.ZoneHomeCapReachedException;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -38,6 +36,7 @@ public final class HomeCommandsHandler
 
     home
     home [home name]
+    home nearest
     delhome
     delhome [home name]
     sethome
@@ -45,8 +44,12 @@ public final class HomeCommandsHandler
     gettphomecost
     gettphomecost [home name]
     listhomes
+    listhomes [page]
 
     homes list
+    homes list page [page]
+    homes list page [page] world [world id]
+    homes list page [page] players [username prefix]
     homes list [username]
     homes create [username]
     homes delete [username] [homename]
@@ -55,6 +58,10 @@ public final class HomeCommandsHandler
     homes tpme [username] [homename]
     homes tp [username] [homename]
     homes tptoother [username to tp] [username with home] [homename]
+    homes near [radius]
+    homes near box [x1] [z1] [x2] [z2]
+    homes stats
+    homes stats reset
 
      */
 
@@ -68,6 +75,16 @@ public final class HomeCommandsHandler
 
     private static final String noSuggestionsSuggestion = "(no suggestions)";
 
+    private static final int maxHomesListedNear = 100;
+    private static final int homesPerPage = 20;
+
+    private static final ExecutorService suggestionExecutor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "NintiHomes suggestions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private static final SuggestionProvider<CommandSource> playersOnlineSuggestionProvider
             = (context, builder) ->
     {
@@ -80,13 +97,8 @@ public final class HomeCommandsHandler
     private static final SuggestionProvider<CommandSource> playersWithHomesSuggestionProvider
             = (context, builder) ->
     {
-        for(UUID id : Homes.getPlayersWithHomes())
-        {
-            String username = UsernameCache.getLastKnownUsername(id);
-
-            if(username != null)
-                builder.suggest(username);
-        }
+        for(String username : Homes.getNamesOfPlayersWithHomes(builder.getRemaining()))
+            builder.suggest(username);
 
         return builder.buildFuture();
     };
@@ -101,13 +113,7 @@ public final class HomeCommandsHandler
         }
 
         PlayerHomesList homeList = Homes.getForIfPresent(context.getSource().getEntity().getUniqueID());
-
-        if(homeList == null || homeList.isEmpty())
-            builder.suggest(noSuggestionsSuggestion);
-        else
-            for(String homeName : homeList.getHomeNames())
-                builder.suggest(homeName);
-
+        suggestHomeNames(homeList, builder);
         return builder.buildFuture();
     };
 
@@ -115,7 +121,7 @@ public final class HomeCommandsHandler
             = (context, builder) ->
     {
         String playerName = StringArgumentType.getString(context, "username");
-        UUID playerId = getLastKnownUUIDOfPlayer(playerName);
+        UUID playerId = getPlayerId(playerName);
 
         if(playerId == null)
         {
@@ -123,19 +129,35 @@ public final class HomeCommandsHandler
             return builder.buildFuture();
         }
 
-        PlayerHomesList homeList = Homes.getForIfPresent(playerId);
+        // Another player's homes may need to be read from disk first, so they're suggested off the server thread.
+        return CompletableFuture.supplyAsync(() ->
+        {
+            suggestHomeNames(Homes.getForIfPresent(playerId), builder);
+            return builder.build();
+        }, suggestionExecutor);
+    };
 
+    private static void suggestHomeNames(PlayerHomesList homeList, SuggestionsBuilder builder)
+    {
         if(homeList == null || homeList.isEmpty())
+        {
             builder.suggest(noSuggestionsSuggestion);
-        else
-            for(String homeName : homeList.getHomeNames())
-                builder.suggest(homeName);
+            return;
+        }
 
-        return builder.buildFuture();
-    };
+        for(String homeName : homeList.getHomeNamesStartingWith(builder.getRemaining()))
+            builder.suggest(homeName);
+    }
 
     private static final Predicate<CommandSource> srcIsPlayer = src -> src.getEntity() instanceof ServerPlayerEntity;
 
+    // Players with homes are looked up first, as most commands are about their homes.
+    private static UUID getPlayerId(String username)
+    {
+        UUID playerId = Homes.getIdOfPlayerWithHomes(username);
+        return playerId != null ? playerId : getLastKnownUUIDOfPlayer(username);
+    }
+
     private static boolean hasPerm(CommandSource src, String... perms)
     { return Permissions.commandSourceHasPermission(src, perms); }
 
@@ -154,6 +176,8 @@ public final class HomeCommandsHandler
             = literal("home")
                     .requires(src -> hasAnyPermUnder(src, NintiHomes.PERMISSION_HOMES_TP))
                     .requires(srcIsPlayer)
+                    .then(literal("nearest")
+                            .executes(HomeCommandsHandler::cmdHome_nearest))
                     .then(argument("home name", StringArgumentType.word())
                             .suggests(homesPlayerHasSuggestionProvider)
                             .executes(HomeCommandsHandler::cmdHome_specified))
@@ -188,17 +212,40 @@ public final class HomeCommandsHandler
     public static final LiteralArgumentBuilder<CommandSource> listhomesCommand
             = literal("listhomes")
                       .requires(srcIsPlayer)
-                      .executes(HomeCommandsHandler::cmdListhomes);
+                      .then(argument("page", IntegerArgumentType.integer(1))
+                              .executes(HomeCommandsHandler::cmdListhomes_page))
+                      .executes(HomeCommandsHandler::cmdListhomes_first);
+
+    private static final LiteralArgumentBuilder<CommandSource> homesListPageCommand
+            = literal("page")
+                    .then(argument("page", IntegerArgumentType.integer(1))
+                            .then(literal("world")
+                                    .then(argument("world id", StringArgumentType.greedyString())
+                                            .executes(HomeCommandsHandler::cmdHomes_list_page_world)))
+                            .then(literal("players")
+                                    .then(argument("username prefix", StringArgumentType.word())
+                                            .suggests(playersWithHomesSuggestionProvider)
+                                            .executes(HomeCommandsHandler::cmdHomes_list_page_players)))
+                            .executes(HomeCommandsHandler::cmdHomes_list_page));
+
+    private static final LiteralArgumentBuilder<CommandSource> homesNearBoxCommand
+            = literal("box")
+                    .then(argument("x1", DoubleArgumentType.doubleArg())
+                            .then(argument("z1", DoubleArgumentType.doubleArg())
+                                    .then(argument("x2", DoubleArgumentType.doubleArg())
+                                            .then(argument("z2", DoubleArgumentType.doubleArg())
+                                                    .executes(HomeCommandsHandler::cmdHomes_near_box)))));
 
     public static final LiteralArgumentBuilder<CommandSource> homesCommand
             = literal("homes")
                     .requires(src -> hasAnyPermUnder(src, NintiHomes.PERMISSION_HOMES_ADMIN))
                     .then(literal("list")
                             .requires(src -> hasPerm(src, NintiHomes.PERMISSION_HOMES_ADMIN_READ))
+                            .then(homesListPageCommand)
                             .then(argument("username", StringArgumentType.word())
                                     .suggests(playersWithHomesSuggestionProvider)
                                     .executes(HomeCommandsHandler::cmdHomes_list_user))
-                            .executes(HomeCommandsHandler::cmdHomes_list_all))
+                            .executes(HomeCommandsHandler::cmdHomes_list_first))
                     .then(literal("create")
                             .requires(srcIsPlayer)
                             .requires(src -> hasPerm(src, NintiHomes.PERMISSION_HOMES_ADMIN_ADD))
@@ -243,7 +290,18 @@ public final class HomeCommandsHandler
                                             .suggests(playersWithHomesSuggestionProvider)
                                             .then(argument("home name", StringArgumentType.word())
                                                     .suggests(homesAnotherPlayerHasSuggestionProvider)
-                                                    .executes(HomeCommandsHandler::cmdHomes_tptoother)))));
+                                                    .executes(HomeCommandsHandler::cmdHomes_tptoother)))))
+                    .then(literal("near")
+                            .requires(srcIsPlayer)
+                            .requires(src -> hasPerm(src, NintiHomes.PERMISSION_HOMES_ADMIN_LOCATE))
+                            .then(argument("radius", IntegerArgumentType.integer(0))
+                                    .executes(HomeCommandsHandler::cmdHomes_near_radius))
+                            .then(homesNearBoxCommand))
+                    .then(literal("stats")
+                            .requires(src -> hasPerm(src, NintiHomes.PERMISSION_HOMES_ADMIN_READ))
+                            .then(literal("reset")
+                                    .executes(HomeCommandsHandler::cmdHomes_stats_reset))
+                            .executes(HomeCommandsHandler::cmdHomes_stats));
 
     private static String homeToString(PlayerHome home)
     {
@@ -259,68 +317,165 @@ public final class HomeCommandsHandler
         return sb.toString();
     }
 
-    private static int cmdHome(CommandContext<CommandSource> cmdContext, String homeName)
+    private static String homesNearToString(String heading, List<PlayerHome> homes)
     {
-        ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
-        assert player != null;
-        PlayerHomesList phl = Homes.getForIfPresent(player);
-        PlayerHome home;
+        if(homes.isEmpty())
+            return "No homes " + heading + ".";
 
-        if((phl == null) || ((home = phl.getHome(homeName)) == null))
+        StringBuilder msgBuilder = new StringBuilder("Homes ").append(heading).append(":");
+
+        for(int i = 0; i < Math.min(homes.size(), maxHomesListedNear); i++)
         {
-            if(homeName.isEmpty())
-                sendMessage(cmdContext, "Could not find a default home.");
-            else
-                sendMessage(cmdContext, "Could not find a home by the name " + homeName + ".");
+            PlayerHome home = homes.get(i);
+            String playerName = home.getPlayerName();
 
-            return 1;
+            msgBuilder.append("\n - ").append(playerName != null ? playerName : home.getPlayerId().toString())
+                      .append(": ").append(homeToString(home));
         }
 
+        if(homes.size() > maxHomesListedNear)
+            msgBuilder.append("\n ... and ").append(homes.size() - maxHomesListedNear).append(" more.");
+
+        return msgBuilder.toString();
+    }
+
+    private static int cmdHome(CommandContext<CommandSource> cmdContext, String homeName)
+    {
+        long startedAt = System.nanoTime();
+
         try
-        { home.requestTpHere(); }
-        catch(NoSuchWorldException e)
-        { sendMessage(cmdContext, "Could not find the world " + e.getWorldId() + "."); }
-        catch(PlayerMissingPermissionException e)
-        { sendMessage(cmdContext, "You do not have permission to teleport to that home."); }
-        catch(Currencies.UnrecognisedCurrencyException e)
-        { sendMessage(cmdContext, "Unrecognised currency in costs: " + e.getCurrencyName()); }
-        catch(CouldNotAffordToTpHomeException e)
         {
-            StringBuilder msgBuilder = new StringBuilder("You cannot afford to teleport to that home. Required: ");
+            ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
+            assert player != null;
+            PlayerHomesList phl = Homes.getForIfPresent(player);
+            PlayerHome home;
+
+            if((phl == null) || ((home = phl.getHome(homeName)) == null))
+            {
+                if(homeName.isEmpty())
+                    sendMessage(cmdContext, "Could not find a default home.");
+                else
+                    sendMessage(cmdContext, "Could not find a home by the name " + homeName + ".");
+
+                return 1;
+            }
+
+            return tpToHome(cmdContext, home);
+        }
+        finally
+        { HomesMetrics.homeCommand.recordSince(startedAt); }
+    }
+
+    private static int tpToHome(CommandContext<CommandSource> cmdContext, PlayerHome home)
+    {
+        if(HomeTeleports.isQueueingTeleports())
+        {
+            CompletableFuture<TpHomeOutcome> outcome = home.tryQueueTpHere();
+            int queuePosition = HomeTeleports.getQueuePosition(home.getPlayerId());
 
-            for(Map.Entry<String, Double> entry : e.getCosts()
-                                                   .entrySet()
-                                                   .stream()
-                                                   .sorted(Map.Entry.comparingByKey())
-                                                   .collect(Collectors.toList()))
-            { msgBuilder.append("\n - ").append(entry.getKey()).append(": ").append(entry.getValue()); }
+            // Players who'll be teleported this tick needn't be told they're waiting.
+            if(!outcome.isDone() && queuePosition > HomeTeleports.getMaxQueuedTeleportsPerTick())
+                sendMessage(cmdContext, "You'll be teleported shortly. You're number " + queuePosition
+                                        + " in the queue.");
 
-            sendMessage(cmdContext, msgBuilder.toString());
+            outcome.thenAccept(o -> sendTpOutcomeMessage(cmdContext, o));
         }
+        else if(HomeTeleports.isPreloadingChunks())
+            home.tryTpHereOnceLoaded().thenAccept(outcome -> sendTpOutcomeMessage(cmdContext, outcome));
+        else
+            sendTpOutcomeMessage(cmdContext, home.tryTpHere());
 
         return 1;
     }
 
+    private static void sendTpOutcomeMessage(CommandContext<CommandSource> cmdContext, TpHomeOutcome outcome)
+    {
+        switch(outcome.getKind())
+        {
+            case ALREADY_QUEUED:
+                sendMessage(cmdContext, "You're already waiting to be teleported to a home. You're number "
+                                        + outcome.getQueuePosition() + " in the queue.");
+                break;
+
+            case NO_SUCH_WORLD:
+                sendMessage(cmdContext, "Could not find the world " + outcome.getWorldId() + ".");
+                break;
+
+            case MISSING_PERMISSION:
+                sendMessage(cmdContext, "You do not have permission to teleport to that home.");
+                break;
+
+            case UNRECOGNISED_CURRENCY:
+                sendMessage(cmdContext, "Unrecognised currency in costs: " + outcome.getCurrencyName());
+                break;
+
+            case COULD_NOT_AFFORD:
+            {
+                StringBuilder msgBuilder = new StringBuilder("You cannot afford to teleport to that home. Required: ");
+
+                for(Map.Entry<String, Double> entry : outcome.getCosts()
+                                                             .entrySet()
+                                                             .stream()
+                                                             .sorted(Map.Entry.comparingByKey())
+                                                             .collect(Collectors.toList()))
+                { msgBuilder.append("\n - ").append(entry.getKey()).append(": ").append(entry.getValue()); }
+
+                sendMessage(cmdContext, msgBuilder.toString());
+                break;
+            }
+        }
+    }
+
     private static int cmdHome_default(CommandContext<CommandSource> cmdContext)
     { return cmdHome(cmdContext, ""); }
 
     private static int cmdHome_specified(CommandContext<CommandSource> cmdContext)
     { return cmdHome(cmdContext, StringArgumentType.getString(cmdContext, "home name")); }
 
+    private static int cmdHome_nearest(CommandContext<CommandSource> cmdContext)
+    {
+        long startedAt = System.nanoTime();
+
+        try
+        {
+            ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
+            assert player != null;
+            PlayerHomesList phl = Homes.getForIfPresent(player);
+            PlayerHome home;
+
+            if((phl == null) || ((home = phl.getNearestHome(new EntityLocation(player))) == null))
+            {
+                sendMessage(cmdContext, "You do not have any homes in this world.");
+                return 1;
+            }
+
+            return tpToHome(cmdContext, home);
+        }
+        finally
+        { HomesMetrics.homeCommand.recordSince(startedAt); }
+    }
+
     private static int cmdDelhome(CommandContext<CommandSource> cmdContext, String homeName)
     {
-        ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
-        assert player != null;
-        PlayerHomesList phl = Homes.getForIfPresent(player);
+        long startedAt = System.nanoTime();
 
-        if((phl != null) && (phl.deleteHome(homeName) != null))
-            sendMessage(cmdContext, homeName.isEmpty() ? "Home deleted!" : "Home \"" + homeName + "\" deleted!");
-        else
-            sendMessage(cmdContext, homeName.isEmpty()
-                                            ? "Did not have a default home to delete."
-                                            : "Did not have a home by the name \"" + homeName + "\" to delete.");
+        try
+        {
+            ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
+            assert player != null;
+            PlayerHomesList phl = Homes.getForIfPresent(player);
 
-        return 1;
+            if((phl != null) && (phl.deleteHome(homeName) != null))
+                sendMessage(cmdContext, homeName.isEmpty() ? "Home deleted!" : "Home \"" + homeName + "\" deleted!");
+            else
+                sendMessage(cmdContext, homeName.isEmpty()
+                                                ? "Did not have a default home to delete."
+                                                : "Did not have a home by the name \"" + homeName + "\" to delete.");
+
+            return 1;
+        }
+        finally
+        { HomesMetrics.delhomeCommand.recordSince(startedAt); }
     }
 
     private static int cmdDelhome_default(CommandContext<CommandSource> cmdContext)
@@ -331,21 +486,40 @@ public final class HomeCommandsHandler
 
     private static int cmdSethome(CommandContext<CommandSource> cmdContext, String homeName)
     {
-        ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
-        assert player != null;
+        long startedAt = System.nanoTime();
 
         try
-        { Homes.getFor(player).requestSetHome(homeName); }
-        catch(PlayerMissingPermissionException e)
-        { sendMessage(cmdContext, "You do not have permission to set a home there."); }
-        catch(ServerHomeCapReachedException e)
-        { sendMessage(cmdContext, "You cannot set as many homes as that."); }
-        catch(WorldHomeCapReachedException e)
-        { sendMessage(cmdContext, "You cannot set as many homes as that in the world " + e.getWorldId()); }
-        catch(ZoneHomeCapReachedException e)
-        { sendMessage(cmdContext, "You cannot set as many homes as that in the zone " + e.getZoneName()); }
+        {
+            ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
+            assert player != null;
 
-        return 1;
+            SetHomeOutcome outcome = Homes.getFor(player).trySetHome(homeName);
+
+            switch(outcome.getKind())
+            {
+                case MISSING_PERMISSION:
+                    sendMessage(cmdContext, "You do not have permission to set a home there.");
+                    break;
+
+                case SERVER_HOME_CAP_REACHED:
+                    sendMessage(cmdContext, "You cannot set as many homes as that.");
+                    break;
+
+                case WORLD_HOME_CAP_REACHED:
+                    sendMessage(cmdContext, "You cannot set as many homes as that in the world "
+                                            + outcome.getWorldId());
+                    break;
+
+                case ZONE_HOME_CAP_REACHED:
+                    sendMessage(cmdContext, "You cannot set as many homes as that in the zone "
+                                            + outcome.getZoneName());
+                    break;
+            }
+
+            return 1;
+        }
+        finally
+        { HomesMetrics.sethomeCommand.recordSince(startedAt); }
     }
 
     private static int cmdSethome_default(CommandContext<CommandSource> cmdContext)
@@ -372,27 +546,27 @@ public final class HomeCommandsHandler
             return 1;
         }
 
-        try
-        {
-            Map<String, Double> costsToTp = home.requestCostsToTpHere();
-            StringBuilder msg = new StringBuilder("Cost to teleport to home: ");
+        Map<String, Double> costsToTp = home.getCostsToTpHereIfPermitted();
 
-            for(Map.Entry<String, Double> entry : costsToTp.entrySet()
-                                                           .stream()
-                                                           .sorted(Map.Entry.comparingByKey())
-                                                           .collect(Collectors.toList()))
-            { msg.append("\n - ").append(entry.getKey()).append(": ").append(entry.getValue()); }
-
-            sendMessage(cmdContext, msg.toString());
-        }
-        catch(PlayerMissingPermissionException e)
+        if(costsToTp == null)
         {
             if(homeName.isEmpty())
                 sendMessage(cmdContext, "You do not have permission to teleport to your default home.");
             else
                 sendMessage(cmdContext, "You do not have permission to teleport to that home.");
+
+            return 1;
         }
 
+        StringBuilder msg = new StringBuilder("Cost to teleport to home: ");
+
+        for(Map.Entry<String, Double> entry : costsToTp.entrySet()
+                                                       .stream()
+                                                       .sorted(Map.Entry.comparingByKey())
+                                                       .collect(Collectors.toList()))
+        { msg.append("\n - ").append(entry.getKey()).append(": ").append(entry.getValue()); }
+
+        sendMessage(cmdContext, msg.toString());
         return 1;
     }
 
@@ -402,7 +576,7 @@ public final class HomeCommandsHandler
     private static int cmdGettphomecost_specified(CommandContext<CommandSource> cmdContext)
     { return cmdGettphomecost(cmdContext, StringArgumentType.getString(cmdContext, "home name")); }
 
-    private static int cmdListhomes(CommandContext<CommandSource> cmdContext)
+    private static int cmdListhomes(CommandContext<CommandSource> cmdContext, int pageNumber)
     {
         ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
         assert player != null;
@@ -414,43 +588,114 @@ public final class HomeCommandsHandler
             return 1;
         }
 
-        StringBuilder msg = new StringBuilder("Homes: ");
-        List<PlayerHome> homes = new ArrayList<>(phl.getHomes());
-        homes.sort(Comparator.comparing(PlayerHome::getName));
+        List<PlayerHome> homes = phl.getHomesSortedByName();
+        int pageCount = (homes.size() + homesPerPage - 1) / homesPerPage;
 
-        for(PlayerHome home : homes)
-            msg.append("\n - ").append(homeToString(home));
+        if(pageNumber > pageCount)
+        {
+            sendMessage(cmdContext, "There " + (pageCount == 1 ? "is only 1 page" : "are only " + pageCount + " pages")
+                                    + " of homes.");
+            return 1;
+        }
+
+        StringBuilder msg = new StringBuilder("Homes");
+
+        if(pageCount > 1)
+            msg.append(" (page ").append(pageNumber).append(" of ").append(pageCount).append(")");
+
+        msg.append(": ");
+
+        for(PlayerHome home : homes.subList((pageNumber - 1) * homesPerPage,
+                                            Math.min(homes.size(), pageNumber * homesPerPage)))
+        { msg.append("\n - ").append(homeToString(home)); }
 
         sendMessage(cmdContext, msg.toString());
         return 1;
     }
 
-    private static int cmdHomes_list_all(CommandContext<CommandSource> cmdContext)
+    private static int cmdListhomes_first(CommandContext<CommandSource> cmdContext)
+    { return cmdListhomes(cmdContext, 1); }
+
+    private static int cmdListhomes_page(CommandContext<CommandSource> cmdContext)
+    { return cmdListhomes(cmdContext, IntegerArgumentType.getInteger(cmdContext, "page")); }
+
+    private static int cmdHomes_list(CommandContext<CommandSource> cmdContext,
+                                     int pageNumber,
+                                     String worldId,
+                                     String playerNamePrefix)
     {
-        StringBuilder msgBuilder = new StringBuilder("Homes:");
+        HomesPage page = Homes.getHomesPage(pageNumber, homesPerPage, worldId, playerNamePrefix);
 
-        for(PlayerHomesList phl : Homes.getAllPlayerHomeLists())
+        if(page == null)
         {
-            if(phl.isEmpty())
-                continue;
+            sendMessage(cmdContext, "Homes are still being indexed, try again in a moment.");
+            return 1;
+        }
+
+        String description = (worldId != null ? " in " + worldId : "")
+                             + (!playerNamePrefix.isEmpty() ? " of players starting with " + playerNamePrefix : "");
+
+        if(page.getTotalHomes() == 0)
+        {
+            sendMessage(cmdContext, "There are no homes" + description + ".");
+            return 1;
+        }
 
-            msgBuilder.append("\n - ").append(phl.getPlayerName());
+        if(page.isEmpty())
+        {
+            sendMessage(cmdContext, "There " + (page.getPageCount() == 1 ? "is only 1 page"
+                                                                         : "are only " + page.getPageCount() + " pages")
+                                    + " of homes" + description + ".");
+            return 1;
+        }
 
-            List<PlayerHome> homes = new ArrayList<>(phl.getHomes());
-            homes.sort(Comparator.comparing(PlayerHome::getName));
+        StringBuilder msgBuilder = new StringBuilder("Homes").append(description)
+                                                             .append(" (page ").append(pageNumber)
+                                                             .append(" of ").append(page.getPageCount()).append("):");
+        UUID lastPlayerId = null;
 
-            for(PlayerHome home : homes)
-                msgBuilder.append("\n - - ").append(homeToString(home));
+        for(PlayerHome home : page.getHomes())
+        {
+            if(!home.getPlayerId().equals(lastPlayerId))
+            {
+                String playerName = home.getPlayerName();
+                msgBuilder.append("\n - ").append(playerName != null ? playerName : home.getPlayerId().toString());
+                lastPlayerId = home.getPlayerId();
+            }
+
+            msgBuilder.append("\n - - ").append(homeToString(home));
         }
 
         sendMessage(cmdContext, msgBuilder.toString());
         return 1;
     }
 
+    private static int cmdHomes_list_first(CommandContext<CommandSource> cmdContext)
+    { return cmdHomes_list(cmdContext, 1, null, ""); }
+
+    private static int cmdHomes_list_page(CommandContext<CommandSource> cmdContext)
+    { return cmdHomes_list(cmdContext, IntegerArgumentType.getInteger(cmdContext, "page"), null, ""); }
+
+    private static int cmdHomes_list_page_world(CommandContext<CommandSource> cmdContext)
+    {
+        return cmdHomes_list(cmdContext,
+                             IntegerArgumentType.getInteger(cmdContext, "page"),
+                             StringArgumentType.getString(cmdContext, "world id"),
+                             "");
+    }
+
+    private static int cmdHomes_list_page_players(CommandContext<CommandSource> cmdContext)
+    {
+        return cmdHomes_list(cmdContext,
+                             IntegerArgumentType.getInteger(cmdContext, "page"),
+                             null,
+                             StringArgumentType.getString(cmdContext, "username prefix"));
+    }
+
     private static int cmdHomes_list_user(CommandContext<CommandSource> cmdContext)
     {
         String username = StringArgumentType.getString(cmdContext, "username");
-        UUID playerId = getLastKnownUUIDOfPlayer(username);
+        UUID playerId = getPlayerId(username);
 
         if(playerId == null)
         {
@@ -482,7 +727,7 @@ public final class HomeCommandsHandler
         ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
         assert player != null;
         String usernameCreatingFor = StringArgumentType.getString(cmdContext, "username");
-        UUID playerIdCreatingFor = getLastKnownUUIDOfPlayer(usernameCreatingFor);
+        UUID playerIdCreatingFor = getPlayerId(usernameCreatingFor);
 
         if(playerIdCreatingFor == null)
         {
@@ -504,7 +749,7 @@ public final class HomeCommandsHandler
     private static int cmdHomes_delete(CommandContext<CommandSource> cmdContext, String homeName)
     {
         String username = StringArgumentType.getString(cmdContext, "username");
-        UUID playerId = getLastKnownUUIDOfPlayer(username);
+        UUID playerId = getPlayerId(username);
 
         if(playerId == null)
         {
@@ -536,7 +781,7 @@ public final class HomeCommandsHandler
     private static int cmdHomes_deleteall(CommandContext<CommandSource> cmdContext)
     {
         String username = StringArgumentType.getString(cmdContext, "username");
-        UUID playerId = getLastKnownUUIDOfPlayer(username);
+        UUID playerId = getPlayerId(username);
 
         if(playerId == null)
         {
@@ -560,7 +805,7 @@ public final class HomeCommandsHandler
     private static int cmdHomes_tpme(CommandContext<CommandSource> cmdContext)
     {
         String homeOwningPlayerName = StringArgumentType.getString(cmdContext, "username");
-        UUID homeOwningPlayerId = getLastKnownUUIDOfPlayer(homeOwningPlayerName);
+        UUID homeOwningPlayerId = getPlayerId(homeOwningPlayerName);
 
         if(homeOwningPlayerId == null)
         {
@@ -585,7 +830,7 @@ public final class HomeCommandsHandler
     private static int cmdHomes_tp(CommandContext<CommandSource> cmdContext)
     {
         String playerName = StringArgumentType.getString(cmdContext, "username");
-        UUID playerId = getLastKnownUUIDOfPlayer(playerName);
+        UUID playerId = getPlayerId(playerName);
 
         if(playerId == null)
         {
@@ -619,7 +864,7 @@ public final class HomeCommandsHandler
     private static int cmdHomes_tptoother(CommandContext<CommandSource> cmdContext)
     {
         String beingTpedPlayerName = StringArgumentType.getString(cmdContext, "username to tp");
-        UUID beingTpedPlayerId = getLastKnownUUIDOfPlayer(beingTpedPlayerName);
+        UUID beingTpedPlayerId = getPlayerId(beingTpedPlayerName);
 
         if(beingTpedPlayerId == null)
         {
@@ -636,7 +881,7 @@ public final class HomeCommandsHandler
         }
 
         String homeOwningPlayerName = StringArgumentType.getString(cmdContext, "username");
-        UUID homeOwningPlayerId = getLastKnownUUIDOfPlayer(homeOwningPlayerName);
+        UUID homeOwningPlayerId = getPlayerId(homeOwningPlayerName);
 
         if(homeOwningPlayerId == null)
         {
@@ -659,4 +904,58 @@ public final class HomeCommandsHandler
 
         return 1;
     }
+
+    private static int cmdHomes_near_radius(CommandContext<CommandSource> cmdContext)
+    {
+        ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
+        assert player != null;
+        int radius = IntegerArgumentType.getInteger(cmdContext, "radius");
+        List<PlayerHome> homes = Homes.getHomesNear(new EntityLocation(player), radius);
+
+        sendMessage(cmdContext, homesNearToString("within " + radius + " blocks", homes));
+        return 1;
+    }
+
+    private static int cmdHomes_near_box(CommandContext<CommandSource> cmdContext)
+    {
+        ServerPlayerEntity player = (ServerPlayerEntity)cmdContext.getSource().getEntity();
+        assert player != null;
+        double x1 = DoubleArgumentType.getDouble(cmdContext, "x1");
+        double z1 = DoubleArgumentType.getDouble(cmdContext, "z1");
+        double x2 = DoubleArgumentType.getDouble(cmdContext, "x2");
+        double z2 = DoubleArgumentType.getDouble(cmdContext, "z2");
+        String worldId = new EntityLocation(player).getWorldId();
+        List<PlayerHome> homes = Homes.getHomesWithin(worldId, x1, z1, x2, z2);
+
+        sendMessage(cmdContext, homesNearToString("between (" + (int)x1 + ", " + (int)z1 + ") and ("
+                                                  + (int)x2 + ", " + (int)z2 + ") in " + worldId, homes));
+        return 1;
+    }
+
+    private static int cmdHomes_stats(CommandContext<CommandSource> cmdContext)
+    {
+        HomesMetrics.RegistryMXBean registry = HomesMetrics.getRegistry();
+        StringBuilder msgBuilder = new StringBuilder("Homes stats:");
+
+        msgBuilder.append("\n - Players with homes: ").append(registry.getPlayersWithHomes())
+                  .append("\n - Players loaded: ").append(registry.getPlayersLoaded())
+                  .append("\n - Homes loaded: ").append(registry.getHomesLoaded())
+                  .append("\n - Bytes saved: ").append(registry.getBytesSaved())
+                  .append(" (last save: ").append(registry.getLastSaveBytes()).append(")")
+                  .append("\n - Bytes loaded: ").append(registry.getBytesLoaded())
+                  .append(" (last load: ").append(registry.getLastLoadBytes()).append(")");
+
+        for(HomesMetrics.Timer timer : HomesMetrics.getTimers())
+            msgBuilder.append("\n - ").append(timer);
+
+        sendMessage(cmdContext, msgBuilder.toString());
+        return 1;
+    }
+
+    private static int cmdHomes_stats_reset(CommandContext<CommandSource> cmdContext)
+    {
+        HomesMetrics.resetTimers();
+        sendMessage(cmdContext, "Homes stats timings reset.");
+        return 1;
+    }
 }
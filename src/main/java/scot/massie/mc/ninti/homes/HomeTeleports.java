@@ -0,0 +1,360 @@
+package scot.massie.mc.ninti.homes;
+
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.server.TicketType;
+import scot.massie.mc.ninti.core.PluginUtils;
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Teleports to homes that aren't carried out on the spot: either waiting for the chunk being teleported to to be
+ * loaded, or queued behind other players' teleports so only so many are carried out each tick. Both are checked on
+ * each server tick, and are carried out on the server thread.
+ */
+public final class HomeTeleports
+{
+    private static final class PendingTeleport
+    {
+        public PendingTeleport(PlayerHome home, ServerWorld world, ChunkPos chunkPos, long timeoutMillis)
+        {
+            this.home = home;
+            this.world = world;
+            this.chunkPos = chunkPos;
+            this.startedAtNanos = System.nanoTime();
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        final PlayerHome home;
+        final ServerWorld world;
+        final ChunkPos chunkPos;
+        final long startedAtNanos;
+        final long timeoutMillis;
+        final CompletableFuture<TpHomeOutcome> result = new CompletableFuture<>();
+
+        long getMillisWaited()
+        { return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos); }
+    }
+
+    // Players have been checked for permission, but are only charged when these are carried out.
+    private static final class QueuedTeleport
+    {
+        public QueuedTeleport(PlayerHome home, ServerWorld world, ChunkPos chunkPos)
+        {
+            this.home = home;
+            this.world = world;
+            this.chunkPos = chunkPos;
+        }
+
+        final PlayerHome home;
+        final ServerWorld world; // Null where the chunk isn't being preloaded.
+        final ChunkPos chunkPos; // Null where the chunk isn't being preloaded.
+        final CompletableFuture<TpHomeOutcome> result = new CompletableFuture<>();
+    }
+
+    // Tickets expire by themselves after a minute, in case they're somehow never released.
+    private static final TicketType<ChunkPos> teleportTicketType
+            = TicketType.create("nintihomes_teleport", Comparator.comparingLong(ChunkPos::asLong), 20 * 60);
+
+    private static final List<PendingTeleport> pendingTeleports = new ArrayList<>();
+    private static final Deque<QueuedTeleport> queuedTeleports = new ArrayDeque<>();
+    // The same teleports as queuedTeleports, by player, as players may only have one queued. Guarded by
+    // queuedTeleports.
+    private static final Map<UUID, QueuedTeleport> queuedTeleportsByPlayer = new HashMap<>();
+
+    private static volatile boolean preloadingChunks = false;
+    private static volatile long chunkPreloadTimeoutMillis = 5000;
+    private static volatile boolean queueingTeleports = false;
+    private static volatile int maxQueuedTeleportsPerTick = 10;
+    private static volatile long queuedTeleportsTickBudgetMillis = 5;
+
+    private HomeTeleports()
+    {}
+
+    public static boolean isPreloadingChunks()
+    { return preloadingChunks; }
+
+    // Where players teleport to their homes by command, waits for the chunk they're teleporting to to be loaded first.
+    public static void setPreloadingChunks(boolean preloadingChunks)
+    { HomeTeleports.preloadingChunks = preloadingChunks; }
+
+    public static long getChunkPreloadTimeoutMillis()
+    { return chunkPreloadTimeoutMillis; }
+
+    // Where a chunk isn't loaded in this time, the player is teleported anyway, loading it on the spot.
+    public static void setChunkPreloadTimeoutMillis(long chunkPreloadTimeoutMillis)
+    {
+        if(chunkPreloadTimeoutMillis < 0)
+            throw new IllegalArgumentException("The chunk preload timeout may not be negative.");
+
+        HomeTeleports.chunkPreloadTimeoutMillis = chunkPreloadTimeoutMillis;
+    }
+
+    public static boolean isQueueingTeleports()
+    { return queueingTeleports; }
+
+    /*
+     * Where players teleport to their homes by command, checks their permission straight away, but queues the teleport
+     * itself, carrying out queued teleports on each tick within the limits set here. Players are charged when their
+     * teleports are carried out.
+     */
+    public static void setQueueingTeleports(boolean queueingTeleports)
+    { HomeTeleports.queueingTeleports = queueingTeleports; }
+
+    public static int getMaxQueuedTeleportsPerTick()
+    { return maxQueuedTeleportsPerTick; }
+
+    public static void setMaxQueuedTeleportsPerTick(int maxQueuedTeleportsPerTick)
+    {
+        if(maxQueuedTeleportsPerTick < 1)
+            throw new IllegalArgumentException("At least one queued teleport must be carried out per tick.");
+
+        HomeTeleports.maxQueuedTeleportsPerTick = maxQueuedTeleportsPerTick;
+    }
+
+    public static long getQueuedTeleportsTickBudgetMillis()
+    { return queuedTeleportsTickBudgetMillis; }
+
+    // No more queued teleports are started in a tick once this long has been spent on them. At least one always is.
+    public static void setQueuedTeleportsTickBudgetMillis(long queuedTeleportsTickBudgetMillis)
+    {
+        if(queuedTeleportsTickBudgetMillis < 0)
+            throw new IllegalArgumentException("The queued teleports tick budget may not be negative.");
+
+        HomeTeleports.queuedTeleportsTickBudgetMillis = queuedTeleportsTickBudgetMillis;
+    }
+
+    static ServerWorld getWorld(String worldId)
+    {
+        for(ServerWorld world : PluginUtils.getServer().getWorlds())
+            if(world.getDimensionKey().getLocation().toString().equals(worldId))
+                return world;
+
+        return null;
+    }
+
+    static ChunkPos getChunkPos(EntityLocation location)
+    { return new ChunkPos(MathHelper.floor(location.getX()) >> 4, MathHelper.floor(location.getZ()) >> 4); }
+
+    /*
+     * Requests the chunk the home is in be loaded, and calls tryTpHere on the home once it is, or once the timeout has
+     * passed. The returned future is completed on the server thread. Where the home's world doesn't exist, calls
+     * tryTpHere straight away.
+     */
+    static CompletableFuture<TpHomeOutcome> tryTpWhenLoaded(PlayerHome home)
+    {
+        ServerWorld world = getWorld(home.getLocation().getWorldId());
+
+        if(world == null)
+            return CompletableFuture.completedFuture(home.tryTpHere());
+
+        ChunkPos chunkPos = getChunkPos(home.getLocation());
+
+        if(world.getChunkProvider().chunkExists(chunkPos.x, chunkPos.z))
+            return CompletableFuture.completedFuture(home.tryTpHere());
+
+        PendingTeleport pending = new PendingTeleport(home, world, chunkPos, chunkPreloadTimeoutMillis);
+        world.getChunkProvider().registerTicket(teleportTicketType, chunkPos, 1, chunkPos);
+
+        synchronized(pendingTeleports)
+        { pendingTeleports.add(pending); }
+
+        return pending.result;
+    }
+
+    /*
+     * Queues teleporting the player to the home, where they've already been checked for permission. The returned future
+     * is completed on the server thread with the outcome of tryTpHere once the teleport's carried out. Where the player
+     * already has a teleport queued, this one isn't, and the future's completed straight away. Where chunks are being
+     * preloaded, the home's chunk is loaded while the player waits.
+     */
+    static CompletableFuture<TpHomeOutcome> queue(PlayerHome home)
+    {
+        synchronized(queuedTeleports)
+        {
+            QueuedTeleport alreadyQueued = queuedTeleportsByPlayer.get(home.getPlayerId());
+
+            if(alreadyQueued != null)
+                return CompletableFuture.completedFuture(TpHomeOutcome.alreadyQueued(getQueuePosition(alreadyQueued)));
+
+            ServerWorld world = null;
+            ChunkPos chunkPos = null;
+
+            if(preloadingChunks)
+            {
+                world = getWorld(home.getLocation().getWorldId());
+
+                if(world != null)
+                {
+                    chunkPos = getChunkPos(home.getLocation());
+                    world.getChunkProvider().registerTicket(teleportTicketType, chunkPos, 1, chunkPos);
+                }
+            }
+
+            QueuedTeleport queued = new QueuedTeleport(home, world, chunkPos);
+            queuedTeleports.addLast(queued);
+            queuedTeleportsByPlayer.put(home.getPlayerId(), queued);
+            return queued.result;
+        }
+    }
+
+    // Must be called while holding queuedTeleports.
+    private static int getQueuePosition(QueuedTeleport queued)
+    {
+        int position = 1;
+
+        for(QueuedTeleport other : queuedTeleports)
+        {
+            if(other == queued)
+                return position;
+
+            position++;
+        }
+
+        return 0;
+    }
+
+    // Gets the player's position in the queue of teleports, starting at 1, or 0 where they have no teleport queued.
+    public static int getQueuePosition(UUID playerId)
+    {
+        synchronized(queuedTeleports)
+        {
+            QueuedTeleport queued = queuedTeleportsByPlayer.get(playerId);
+            return queued == null ? 0 : getQueuePosition(queued);
+        }
+    }
+
+    private static void runQueuedTeleports()
+    {
+        long startedAtNanos = System.nanoTime();
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(queuedTeleportsTickBudgetMillis);
+        int maxTeleports = maxQueuedTeleportsPerTick;
+
+        for(int i = 0; i < maxTeleports && (i == 0 || System.nanoTime() - startedAtNanos < budgetNanos); i++)
+        {
+            QueuedTeleport queued;
+
+            synchronized(queuedTeleports)
+            {
+                queued = queuedTeleports.pollFirst();
+
+                if(queued == null)
+                    return;
+
+                queuedTeleportsByPlayer.remove(queued.home.getPlayerId());
+            }
+
+            runQueuedTeleport(queued);
+        }
+    }
+
+    // The player's only charged here, so where they've gone offline or the home's world is gone, they aren't.
+    private static void runQueuedTeleport(QueuedTeleport queued)
+    {
+        try
+        { queued.result.complete(queued.home.tryTpHere()); }
+        catch(RuntimeException e)
+        {
+            e.printStackTrace();
+            queued.result.completeExceptionally(e);
+        }
+        finally
+        {
+            if(queued.world != null)
+                queued.world.getChunkProvider().releaseTicket(teleportTicketType, queued.chunkPos, 1, queued.chunkPos);
+        }
+    }
+
+    // Called on the server thread at the end of each tick.
+    static void tick()
+    {
+        runQueuedTeleports();
+        List<PendingTeleport> ready = new ArrayList<>();
+
+        synchronized(pendingTeleports)
+        {
+            for(Iterator<PendingTeleport> iter = pendingTeleports.iterator(); iter.hasNext(); )
+            {
+                PendingTeleport pending = iter.next();
+
+                if(pending.world.getChunkProvider().chunkExists(pending.chunkPos.x, pending.chunkPos.z)
+                   || pending.getMillisWaited() >= pending.timeoutMillis)
+                {
+                    ready.add(pending);
+                    iter.remove();
+                }
+            }
+        }
+
+        for(PendingTeleport pending : ready)
+            complete(pending);
+    }
+
+    private static void complete(PendingTeleport pending)
+    {
+        long millisWaited = pending.getMillisWaited();
+
+        if(!pending.world.getChunkProvider().chunkExists(pending.chunkPos.x, pending.chunkPos.z))
+            System.err.println("The chunk for the home \"" + pending.home.getName() + "\" of "
+                               + pending.home.getPlayerId() + " wasn't loaded after " + millisWaited
+                               + "ms, teleporting anyway.");
+
+        try
+        { pending.result.complete(pending.home.tryTpHere().afterWaitingForChunk(millisWaited)); }
+        catch(RuntimeException e)
+        {
+            e.printStackTrace();
+            pending.result.completeExceptionally(e);
+        }
+        finally
+        { pending.world.getChunkProvider().releaseTicket(teleportTicketType, pending.chunkPos, 1, pending.chunkPos); }
+    }
+
+    // Drops all pending and queued teleports, as when the server's stopping. Their players aren't teleported, nor, as
+    // they're only charged when teleported, charged.
+    static void cancelAll()
+    {
+        List<QueuedTeleport> cancelledQueued;
+
+        synchronized(queuedTeleports)
+        {
+            cancelledQueued = new ArrayList<>(queuedTeleports);
+            queuedTeleports.clear();
+            queuedTeleportsByPlayer.clear();
+        }
+
+        for(QueuedTeleport queued : cancelledQueued)
+        {
+            if(queued.world != null)
+                queued.world.getChunkProvider().releaseTicket(teleportTicketType, queued.chunkPos, 1, queued.chunkPos);
+
+            queued.result.complete(TpHomeOutcome.playerOffline);
+        }
+
+        List<PendingTeleport> cancelled;
+
+        synchronized(pendingTeleports)
+        {
+            cancelled = new ArrayList<>(pendingTeleports);
+            pendingTeleports.clear();
+        }
+
+        for(PendingTeleport pending : cancelled)
+        {
+            pending.world.getChunkProvider().releaseTicket(teleportTicketType, pending.chunkPos, 1, pending.chunkPos);
+            pending.result.complete(TpHomeOutcome.playerOffline);
+        }
+    }
+}
@@ -12,30 +12,174 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public final class Homes
 {
-    private static final Map<UUID, PlayerHomesList> homesLists = new HashMap<>();
+    // Reads of the registry don't lock. Adding players' homes lists (other than where they're added by loading) and
+    // removing them is done while holding registryLock, as is changing where not-yet-loaded homes are read from.
+    private static final Map<UUID, PlayerHomesList> homesLists = new ConcurrentHashMap<>();
+
+    // Canonical copies of world IDs and, where they're being interned, home names, so homes can share them.
+    private static final Map<String, String> worldIdPool = new ConcurrentHashMap<>();
+    private static final Map<String, String> homeNamePool = new ConcurrentHashMap<>();
+    private static volatile boolean interningHomeNames = false;
+    private static final Object registryLock = new Object();
+    private static volatile MappedHomesFile unloadedHomes = null;
     private static final Path saveFileLocation = NintiCore.DATA_FOLDER.resolve("homes.csv");
     private static final Path saveFileBackupLocation = NintiCore.DATA_FOLDER.resolve("homes_backup.csv");
+    private static final Path binarySaveFileBackupLocation = NintiCore.DATA_FOLDER.resolve("homes_backup.dat");
+    private static final Path saveFileChangesLocation = NintiCore.DATA_FOLDER.resolve("homes_changes.csv");
+    private static final Path journalLocation = NintiCore.DATA_FOLDER.resolve("homes_journal.csv");
+    private static final Path journalRotatedLocation = NintiCore.DATA_FOLDER.resolve("homes_journal_rotated.csv");
+    private static final Path playerSaveFilesLocation = NintiCore.DATA_FOLDER.resolve("homes");
+
+    // Players with a save file of their own. Null where per-player storage isn't in use.
+    private static volatile Set<UUID> storedPlayerIds = null;
+    private static final Set<UUID> onlinePlayers = new HashSet<>();
+    // Built on first use, and discarded when the registry is reloaded. The player name index is built in the
+    // background, and is kept here from when it's started, so changes made while it's being built are applied to it.
+    private static volatile HomesSpatialIndex spatialIndex = null;
+    private static volatile PlayerNameIndex playerNameIndex = null;
+    private static volatile int zoneHomeCountsVersion = 0;
+
+    private static final HomesJournal journal = new HomesJournal(journalLocation, journalRotatedLocation);
+    private static ScheduledExecutorService checkpointExecutor = null;
+    private static long checkpointIntervalSeconds = 300;
+    private static final long evictionCheckIntervalSeconds = 60;
+
+    private static final Set<PlayerHomesList> dirtyHomesLists = new LinkedHashSet<>();
+    private static final Object checkpointLock = new Object();
+    private static final Object saveQueueLock = new Object();
+    // Settings are volatile rather than guarded by saveQueueLock, so they may be read while holding registryLock.
+    // They're set from HomesConfig when the server starts, before homes are loaded.
+    private static volatile int savesPerCompaction = 20;
+    private static int savesSinceCompaction = 0;
+    private static volatile SaveFormat saveFormat = SaveFormat.CSV;
+    private static volatile boolean lazyLoading = false;
+    private static volatile boolean parallelLoading = false;
+    private static volatile boolean verifyParallelLoading = false;
+    private static volatile boolean columnarStorage = false;
+    private static volatile boolean perPlayerStorage = false;
+    private static volatile long evictionIdleSeconds = 600;
+
+    private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "NintiHomes saving");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "NintiHomes indexing");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Returned by writeHomesFile where the new homes file couldn't be moved into place.
+    private static final int couldNotReplaceHomesFile = -2;
+
+    private static boolean saveIsRunning = false;
+    private static CompletableFuture<Integer> followUpSave = null;
+    private static boolean followUpSaveShouldCompact = false;
+
+    public enum SaveFormat
+    {
+        CSV,
+        BINARY
+    }
+
+    private static final class SaveSnapshot
+    {
+        public SaveSnapshot(boolean isCompaction,
+                            boolean isPerPlayer,
+                            SaveFormat format,
+                            List<PlayerHomesList> changedHomesLists,
+                            Map<UUID, List<PlayerHome>> homes,
+                            MappedHomesFile unloadedHomes,
+                            BitSet unloadedPlayerIndices)
+        {
+            this.isCompaction = isCompaction;
+            this.isPerPlayer = isPerPlayer;
+            this.format = format;
+            this.changedHomesLists = changedHomesLists;
+            this.homes = homes;
+            this.unloadedHomes = unloadedHomes;
+            this.unloadedPlayerIndices = unloadedPlayerIndices;
+        }
+
+        final boolean isCompaction;
+        final boolean isPerPlayer;
+        final SaveFormat format;
+        final List<PlayerHomesList> changedHomesLists;
+        final Map<UUID, List<PlayerHome>> homes;
+
+        // Players whose homes haven't yet been read from the mapped homes file, and so are unchanged since it was
+        // loaded. These are read on the save thread.
+        final MappedHomesFile unloadedHomes;
+        final BitSet unloadedPlayerIndices;
+
+        public Map<UUID, List<PlayerHome>> getAllHomes()
+        {
+            if(unloadedHomes == null)
+                return homes;
+
+            Map<UUID, List<PlayerHome>> result = unloadedHomes.readHomes(unloadedPlayerIndices);
+            result.putAll(homes);
+            return result;
+        }
+    }
 
     private Homes()
     {}
 
     public static PlayerHomesList getFor(UUID playerId)
     {
-        synchronized(homesLists)
-        { return homesLists.computeIfAbsent(playerId, PlayerHomesList::new); }
+        while(true)
+        {
+            PlayerHomesList phl = homesLists.get(playerId);
+
+            if(phl == null)
+                phl = loadFromUnloadedHomes(playerId, true);
+
+            if(markUsedIfRegistered(phl))
+                return phl;
+        }
+    }
+
+    /*
+     * Marking a homes list as used keeps it from being evicted, but it may have been evicted before it was marked, in
+     * which case this returns false, and it should be got afresh. Eviction checks homes lists are still idle after
+     * removing them, and puts back any that aren't, so either this sees the homes list removed, or eviction sees it
+     * used.
+     */
+    private static boolean markUsedIfRegistered(PlayerHomesList homesList)
+    {
+        homesList.markUsed();
+        return homesLists.get(homesList.getPlayerId()) == homesList;
     }
 
     public static PlayerHomesList getFor(PlayerEntity player)
@@ -46,8 +190,80 @@ public final class Homes
 
     public static PlayerHomesList getForIfPresent(UUID playerId)
     {
-        synchronized(homesLists)
-        { return homesLists.get(playerId); }
+        while(true)
+        {
+            PlayerHomesList phl = homesLists.get(playerId);
+
+            if(phl == null && hasUnloadedHomes(playerId))
+                phl = loadFromUnloadedHomes(playerId, false);
+
+            if(phl == null || markUsedIfRegistered(phl))
+                return phl;
+        }
+    }
+
+    private static boolean hasUnloadedHomes(UUID playerId)
+    {
+        MappedHomesFile unloadedHomes = Homes.unloadedHomes;
+        Set<UUID> storedPlayerIds = Homes.storedPlayerIds;
+
+        return (unloadedHomes != null && unloadedHomes.hasUntaken(playerId))
+               || (storedPlayerIds != null && storedPlayerIds.contains(playerId));
+    }
+
+    // Only returns null where there's nothing to load and createIfAbsent is false.
+    private static PlayerHomesList loadFromUnloadedHomes(UUID playerId, boolean createIfAbsent)
+    {
+        long waitStartedAt = System.nanoTime();
+
+        synchronized(registryLock)
+        {
+            HomesMetrics.registryLockWait.recordSince(waitStartedAt);
+
+            // Another thread may have loaded them while this one was waiting for the lock.
+            PlayerHomesList phl = homesLists.get(playerId);
+
+            if(phl != null)
+                return phl;
+
+            List<PlayerHome> loadedHomes = unloadedHomes == null ? null : unloadedHomes.take(playerId);
+
+            if(loadedHomes == null && storedPlayerIds != null && storedPlayerIds.contains(playerId))
+                loadedHomes = readPlayerSaveFile(playerId);
+
+            if(loadedHomes == null && !createIfAbsent)
+                return null;
+
+            phl = new PlayerHomesList(playerId);
+
+            if(loadedHomes != null)
+                phl.loadHomes(loadedHomes);
+
+            // Where the player's homes were counted without being loaded, corrects the count for any homes that
+            // couldn't be loaded after all.
+            PlayerNameIndex playerNameIndex = Homes.playerNameIndex;
+
+            if(playerNameIndex != null && loadedHomes != null)
+                playerNameIndex.setHomeCounts(playerId, phl.countHomesByWorld());
+
+            homesLists.put(playerId, phl);
+            return phl;
+        }
+    }
+
+    private static void loadAllUnloadedHomes()
+    {
+        synchronized(registryLock)
+        {
+            if(unloadedHomes != null)
+                for(UUID playerId : unloadedHomes.getUntakenPlayerIds())
+                    loadFromUnloadedHomes(playerId, false);
+
+            if(storedPlayerIds != null)
+                for(UUID playerId : storedPlayerIds)
+                    if(!homesLists.containsKey(playerId))
+                        loadFromUnloadedHomes(playerId, false);
+        }
     }
 
     public static PlayerHomesList getForIfPresent(PlayerEntity player)
@@ -56,19 +272,18 @@ public final class Homes
     public static PlayerHomesList getForIfPresent(GameProfile player)
     { return getForIfPresent(player.getId()); }
 
+    // Returns a live, unmodifiable view of the registry. Iterating over it doesn't lock the registry, and reflects
+    // players' homes lists being added or removed during iteration only in part.
     public static Collection<PlayerHomesList> getAllPlayerHomeLists()
     {
-        synchronized(homesLists)
-        { return new ArrayList<>(homesLists.values()); }
+        loadAllUnloadedHomes();
+        return Collections.unmodifiableCollection(homesLists.values());
     }
 
     public static boolean hasAny(UUID playerId)
     {
-        synchronized(homesLists)
-        {
-            PlayerHomesList phl = homesLists.get(playerId);
-            return (phl != null) && (!phl.isEmpty());
-        }
+        PlayerHomesList phl = homesLists.get(playerId);
+        return phl == null ? hasUnloadedHomes(playerId) : !phl.isEmpty();
     }
 
     public static boolean hasAny(PlayerEntity player)
@@ -77,184 +292,1548 @@ public final class Homes
     public static boolean hasAny(GameProfile player)
     { return hasAny(player.getId()); }
 
+    static int countLoadedPlayers()
+    { return homesLists.size(); }
+
+    static int countLoadedHomes()
+    {
+        int result = 0;
+
+        for(PlayerHomesList phl : homesLists.values())
+            result += phl.countHomes();
+
+        return result;
+    }
+
     public static List<UUID> getPlayersWithHomes()
     {
-        synchronized(homesLists)
-        { return new ArrayList<>(homesLists.keySet()); }
+        // Players not yet loaded are gathered first, so players loaded meanwhile are still included.
+        MappedHomesFile unloadedHomes = Homes.unloadedHomes;
+        Set<UUID> storedPlayerIds = Homes.storedPlayerIds;
+        Set<UUID> result = new LinkedHashSet<>();
+
+        if(unloadedHomes != null)
+            result.addAll(unloadedHomes.getUntakenPlayerIds());
+
+        if(storedPlayerIds != null)
+            result.addAll(storedPlayerIds);
+
+        result.addAll(homesLists.keySet());
+        return new ArrayList<>(result);
     }
 
-    public static void save()
+    /*
+     * Homes stay in the spatial index when their players' homes lists are evicted, as they still exist. The index is
+     * built from every player's homes, so building it loads all homes not yet loaded.
+     */
+    private static HomesSpatialIndex getSpatialIndex()
     {
-        // CSV file
-        // UUID, home name, world id, x, y, z, pitch, yaw
+        HomesSpatialIndex result = spatialIndex;
 
-        try
-        { Files.move(saveFileLocation, saveFileBackupLocation, StandardCopyOption.REPLACE_EXISTING); }
-        catch(IOException e)
+        if(result != null)
+            return result;
+
+        synchronized(registryLock)
         {
-            e.printStackTrace();
-            System.err.println("Could not save homes file - could not move homes file to backup location.");
-            return;
+            if(spatialIndex != null)
+                return spatialIndex;
+
+            loadAllUnloadedHomes();
+            result = new HomesSpatialIndex();
+
+            // Published before it's filled, so changes made meanwhile are applied to it. Each homes list's homes are
+            // added under its lock, as its changes are, so any change made to it meanwhile is applied after its homes
+            // are added, and isn't undone by them.
+            spatialIndex = result;
+
+            for(PlayerHomesList phl : homesLists.values())
+                phl.addHomesTo(result);
+
+            return result;
         }
+    }
+
+    // Only x and z are considered. Sorted by horizontal distance from the given point, nearest first.
+    public static List<PlayerHome> getHomesNear(String worldId, double x, double z, double radius)
+    { return getSpatialIndex().getWithinRadius(worldId, x, z, radius); }
+
+    public static List<PlayerHome> getHomesNear(EntityLocation location, double radius)
+    { return getHomesNear(location.getWorldId(), location.getX(), location.getZ(), radius); }
+
+    // Gets the homes in the given world between the given corners, inclusive, at any height.
+    public static List<PlayerHome> getHomesWithin(String worldId, double x1, double z1, double x2, double z2)
+    { return getSpatialIndex().getWithinBox(worldId, x1, z1, x2, z2); }
+
+    // Must be called while holding registryLock, so the player's homes aren't loaded meanwhile. Where the player's
+    // homes are in their own save file, this reads it.
+    private static Map<String, Integer> countUnloadedHomesByWorld(UUID playerId)
+    {
+        Map<String, Integer> result = unloadedHomes == null ? null : unloadedHomes.countUntakenHomesByWorld(playerId);
+
+        if(result != null)
+            return result;
+
+        result = new HashMap<>();
+
+        if(storedPlayerIds != null && storedPlayerIds.contains(playerId))
+            for(PlayerHome home : readPlayerSaveFile(playerId))
+                result.merge(home.getLocation().getWorldId(), 1, Integer::sum);
+
+        return result;
+    }
 
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(saveFileLocation.toFile())))
+    /*
+     * Unlike the spatial index, building this doesn't load homes not yet loaded. It does count them, which for players
+     * with save files of their own means reading those, so it's built on another thread. Returns null until it's
+     * built, having started building it where it isn't being already.
+     */
+    private static PlayerNameIndex getPlayerNameIndex()
+    {
+        PlayerNameIndex result = playerNameIndex;
+
+        if(result != null)
+            return result.isComplete() ? result : null;
+
+        synchronized(registryLock)
         {
-            // Header row
-            writer.write(StringUtils.toCSVRow(Arrays.asList("player id", "home name",
-                                                            "world id", "x", "y", "z", "pitch", "yaw"),
-                                              true));
-            writer.newLine();
+            if(playerNameIndex != null)
+                return playerNameIndex.isComplete() ? playerNameIndex : null;
 
-            List<PlayerHomesList> pHomesLists;
+            // Published before it's filled, so players who set their first home meanwhile aren't missed.
+            result = new PlayerNameIndex();
+            playerNameIndex = result;
+        }
 
-            synchronized(homesLists)
-            { pHomesLists = new ArrayList<>(homesLists.values()); }
+        PlayerNameIndex index = result;
+        indexExecutor.execute(() -> fillPlayerNameIndex(index));
+        return null;
+    }
 
-            for(PlayerHomesList pHomesList : pHomesLists)
+    /*
+     * Each player is added while holding registryLock, so they aren't loaded while their homes are being counted. The
+     * lock's released between players, so other threads aren't held up for longer than it takes to count one player's
+     * homes. As with the spatial index, loaded players are added under their homes lists' locks.
+     */
+    private static void fillPlayerNameIndex(PlayerNameIndex index)
+    {
+        for(UUID playerId : getPlayersWithHomes())
+        {
+            synchronized(registryLock)
             {
-                String playerId = pHomesList.getPlayerId().toString();
+                // The registry's been reloaded since, so this index has been discarded.
+                if(playerNameIndex != index)
+                    return;
+
+                PlayerHomesList phl = homesLists.get(playerId);
 
-                for(PlayerHome pHome : pHomesList.getHomes())
+                if(phl != null)
                 {
-                    List<String> row = new ArrayList<>(8);
-                    EntityLocation pHomeLocation = pHome.getLocation();
-                    row.add(playerId);
-                    row.add(pHome.getName());
-                    row.add(pHomeLocation.getWorldId());
-                    row.add(Double.toString(pHomeLocation.getX()));
-                    row.add(Double.toString(pHomeLocation.getY()));
-                    row.add(Double.toString(pHomeLocation.getZ()));
-                    row.add(Double.toString(pHomeLocation.getPitch()));
-                    row.add(Double.toString(pHomeLocation.getYaw()));
-
-                    writer.write(StringUtils.toCSVRow(row, true));
-                    writer.newLine();
+                    phl.addTo(index);
+                    continue;
                 }
-            }
 
-            System.out.println("Homes saved.");
+                Map<String, Integer> homeCounts = countUnloadedHomesByWorld(playerId);
+
+                if(homeCounts.isEmpty())
+                    continue;
+
+                index.update(playerId);
+                index.setHomeCounts(playerId, homeCounts);
+            }
         }
-        catch(IOException e)
+
+        index.markComplete();
+    }
+
+    // Gets the last known usernames of players with homes that start with the given prefix, ignoring case. Empty
+    // while players with homes are still being indexed.
+    public static List<String> getNamesOfPlayersWithHomes(String prefix)
+    {
+        PlayerNameIndex playerNameIndex = getPlayerNameIndex();
+        return playerNameIndex == null ? new ArrayList<>() : playerNameIndex.getNamesStartingWith(prefix);
+    }
+
+    // Returns null where there's no player with homes whose last known username is the one given, ignoring case, or
+    // while players with homes are still being indexed.
+    public static UUID getIdOfPlayerWithHomes(String username)
+    {
+        PlayerNameIndex playerNameIndex = getPlayerNameIndex();
+        return playerNameIndex == null ? null : playerNameIndex.getPlayerId(username);
+    }
+
+    /*
+     * Gets the given page of homes, where pages start at 1. Where worldId isn't null, only homes in that world are
+     * included. Where playerNamePrefix isn't empty, only homes of players whose usernames start with it are included.
+     * Players' homes are counted from the player name index, and only loaded for players with homes on the page.
+     * Returns null while players with homes are still being indexed.
+     */
+    public static HomesPage getHomesPage(int pageNumber, int pageSize, String worldId, String playerNamePrefix)
+    {
+        PlayerNameIndex playerNameIndex = getPlayerNameIndex();
+
+        if(playerNameIndex == null)
+            return null;
+
+        int totalHomes = playerNameIndex.countHomes(playerNamePrefix, worldId);
+        long homesToSkip = (long)(pageNumber - 1) * pageSize;
+        List<PlayerHome> homes = new ArrayList<>(pageSize);
+
+        if(homesToSkip >= totalHomes)
+            return new HomesPage(homes, pageNumber, pageSize, totalHomes);
+
+        for(Map.Entry<UUID, Integer> pagePlayer
+                : playerNameIndex.getPlayersOnPage(playerNamePrefix, worldId, homesToSkip, pageSize).entrySet())
         {
-            e.printStackTrace();
-            System.err.println("Could not save homes file, reverting to ");
+            PlayerHomesList phl = getForIfPresent(pagePlayer.getKey());
 
-            try
-            { Files.move(saveFileLocation, saveFileBackupLocation, StandardCopyOption.REPLACE_EXISTING); }
-            catch(IOException e2)
+            if(phl == null)
+                continue;
+
+            int playerHomesToSkip = pagePlayer.getValue();
+
+            for(PlayerHome home : phl.getHomesSortedByName())
             {
-                e2.printStackTrace();
-                System.err.println("Could not restore homes file - could not move old homes file to proper location."
-                                   + "\nIt should be at: " + saveFileBackupLocation);
+                if(homes.size() >= pageSize)
+                    break;
+
+                if(worldId != null && !worldId.equals(home.getLocation().getWorldId()))
+                    continue;
+
+                if(playerHomesToSkip > 0)
+                    playerHomesToSkip--;
+                else
+                    homes.add(home);
             }
         }
+
+        return new HomesPage(homes, pageNumber, pageSize, totalHomes);
     }
 
-    public static void load()
+    static int getZoneHomeCountsVersion()
+    { return zoneHomeCountsVersion; }
+
+    // Players' counts of homes in each zone are kept between home cap checks, and only recounted where a zone is
+    // replaced by a new zone object. This should be called where a zone is changed in place.
+    public static void invalidateZoneHomeCounts()
+    { zoneHomeCountsVersion++; }
+
+    private static void markDirty(PlayerHomesList homesList)
+    {
+        synchronized(dirtyHomesLists)
+        { dirtyHomesLists.add(homesList); }
+    }
+
+    // Called by PlayerHomesList while holding its lock, so changes are journalled in the order they're made.
+
+    static void onHomeSet(PlayerHomesList homesList, PlayerHome home)
     {
-        synchronized(homesLists)
+        HomesSpatialIndex spatialIndex = Homes.spatialIndex;
+
+        if(spatialIndex != null)
+            spatialIndex.add(home);
+
+        PlayerNameIndex playerNameIndex = Homes.playerNameIndex;
+
+        if(playerNameIndex != null)
         {
-            homesLists.clear();
+            if(!playerNameIndex.contains(homesList.getPlayerId()))
+                playerNameIndex.update(homesList.getPlayerId());
 
-            try(BufferedReader reader = new BufferedReader(new FileReader(saveFileLocation.toFile())))
-            {
-                @SuppressWarnings("UnusedAssignment") // Ignore first line, this should be the header.
-                String line = reader.readLine();
+            playerNameIndex.setHomeCounts(homesList.getPlayerId(), homesList.countHomesByWorld());
+        }
 
-                while((line = reader.readLine()) != null)
-                {
-                    List<String> fields = StringUtils.parseCSVRow(line);
+        markDirty(homesList);
+        journal.recordSet(homesList.getPlayerId(), home);
+    }
 
-                    if(fields.size() != 8)
-                        System.err.println("Malformed home record: " + line);
+    static void onHomeDeleted(PlayerHomesList homesList, String homeName)
+    {
+        HomesSpatialIndex spatialIndex = Homes.spatialIndex;
 
-                    UUID playerId;
-                    String homeName;
-                    String worldId;
-                    double x, y, z, pitch, yaw;
+        if(spatialIndex != null)
+            spatialIndex.remove(homesList.getPlayerId(), homeName);
 
-                    try
-                    {
-                        playerId = UUID.fromString(fields.get(0));
-                    }
-                    catch(IllegalArgumentException e)
-                    {
-                        System.err.println("Malformed player ID, skipping: " + fields.get(0));
-                        continue;
-                    }
+        PlayerNameIndex playerNameIndex = Homes.playerNameIndex;
 
-                    // TO DO: Include validation for these.
-                    homeName = fields.get(1);
-                    worldId = fields.get(2);
+        if(playerNameIndex != null)
+        {
+            if(homesList.isEmpty())
+                playerNameIndex.remove(homesList.getPlayerId());
+            else
+                playerNameIndex.setHomeCounts(homesList.getPlayerId(), homesList.countHomesByWorld());
+        }
 
-                    //region parse x, y, z, pitch, and yaw
-                    try
-                    {
-                        x = Double.parseDouble(fields.get(3));
-                    }
-                    catch(NumberFormatException e)
-                    {
-                        System.err.println("Invalid X value, must be a number, skipping: " + fields.get(3));
-                        continue;
-                    }
+        markDirty(homesList);
+        journal.recordDelete(homesList.getPlayerId(), homeName);
+    }
 
-                    try
-                    {
-                        y = Double.parseDouble(fields.get(4));
-                    }
-                    catch(NumberFormatException e)
-                    {
-                        System.err.println("Invalid Y value, must be a number, skipping: " + fields.get(4));
-                        continue;
-                    }
+    static void onHomesCleared(PlayerHomesList homesList)
+    {
+        HomesSpatialIndex spatialIndex = Homes.spatialIndex;
 
-                    try
-                    {
-                        z = Double.parseDouble(fields.get(5));
-                    }
-                    catch(NumberFormatException e)
-                    {
-                        System.err.println("Invalid Z value, must be a number, skipping: " + fields.get(5));
-                        continue;
-                    }
+        if(spatialIndex != null)
+            spatialIndex.removeAll(homesList.getPlayerId());
 
-                    try
-                    {
-                        pitch = Double.parseDouble(fields.get(6));
-                    }
-                    catch(NumberFormatException e)
-                    {
-                        System.err.println("Invalid pitch value, must be a number, skipping: " + fields.get(6));
-                        continue;
-                    }
+        PlayerNameIndex playerNameIndex = Homes.playerNameIndex;
 
-                    try
-                    {
-                        yaw = Double.parseDouble(fields.get(7));
-                    }
-                    catch(NumberFormatException e)
-                    {
-                        System.err.println("Invalid yaw value, must be a number, skipping: " + fields.get(7));
-                        continue;
-                    }
-                    //endregion
+        if(playerNameIndex != null)
+            playerNameIndex.remove(homesList.getPlayerId());
 
-                    getFor(playerId).setHome(homeName, new EntityLocation(worldId, x, y, z, pitch, yaw));
-                }
+        markDirty(homesList);
+        journal.recordClear(homesList.getPlayerId());
+    }
 
-                System.out.println("Homes loaded.");
-            }
-            catch(FileNotFoundException e)
-            {
-                e.printStackTrace();
-                System.out.println("No existing homes file, so the homes registry is empty.");
-            }
-            catch(IOException e)
+    private static List<PlayerHomesList> takeDirtyHomesLists()
+    {
+        synchronized(dirtyHomesLists)
+        {
+            List<PlayerHomesList> result = new ArrayList<>(dirtyHomesLists);
+            dirtyHomesLists.clear();
+            return result;
+        }
+    }
+
+    private static void restoreDirtyHomesLists(Collection<PlayerHomesList> homesListsToRestore)
+    {
+        synchronized(dirtyHomesLists)
+        { dirtyHomesLists.addAll(homesListsToRestore); }
+    }
+
+    public static int getSavesPerCompaction()
+    { return savesPerCompaction; }
+
+    public static void setSavesPerCompaction(int savesPerCompaction)
+    {
+        if(savesPerCompaction < 1)
+            throw new IllegalArgumentException("There must be at least one save per compaction.");
+
+        Homes.savesPerCompaction = savesPerCompaction;
+    }
+
+    public static SaveFormat getSaveFormat()
+    { return saveFormat; }
+
+    // The homes file is written in this format when compacting. When loading, a homes file in this format is preferred
+    // where there are homes files in both formats. The changes file is always CSV.
+    public static void setSaveFormat(SaveFormat saveFormat)
+    { Homes.saveFormat = saveFormat; }
+
+    public static boolean isLazyLoading()
+    { return lazyLoading; }
+
+    // Where the binary homes file is loaded, maps it into memory rather than reading it, and only reads each player's
+    // homes the first time they're accessed. Takes effect on next load.
+    public static void setLazyLoading(boolean lazyLoading)
+    { Homes.lazyLoading = lazyLoading; }
+
+    public static boolean isParallelLoading()
+    { return parallelLoading; }
+
+    // Where the CSV homes file is loaded, splits it into chunks and parses them in parallel. Takes effect on next load.
+    public static void setParallelLoading(boolean parallelLoading)
+    { Homes.parallelLoading = parallelLoading; }
+
+    public static boolean isVerifyingParallelLoading()
+    { return verifyParallelLoading; }
+
+    // Where the CSV homes file is parsed in parallel, also parses it sequentially and reports any differences.
+    public static void setVerifyParallelLoading(boolean verifyParallelLoading)
+    { Homes.verifyParallelLoading = verifyParallelLoading; }
+
+    public static boolean isInterningHomeNames()
+    { return interningHomeNames; }
+
+    /*
+     * Where set, homes with the same name share one copy of it, as world IDs always do. Takes effect for homes set or
+     * loaded from then on.
+     */
+    public static void setInterningHomeNames(boolean interningHomeNames)
+    { Homes.interningHomeNames = interningHomeNames; }
+
+    private static String intern(Map<String, String> pool, String s)
+    {
+        String interned = pool.get(s);
+
+        if(interned != null)
+            return interned;
+
+        interned = pool.putIfAbsent(s, s);
+        return interned == null ? s : interned;
+    }
+
+    static String internWorldId(String worldId)
+    { return intern(worldIdPool, worldId); }
+
+    static String internHomeName(String homeName)
+    { return interningHomeNames ? intern(homeNamePool, homeName) : homeName; }
+
+    // Returns the same location where its world ID is already the canonical copy.
+    static EntityLocation withInternedWorldId(EntityLocation location)
+    {
+        String worldId = internWorldId(location.getWorldId());
+
+        if(worldId == location.getWorldId())
+            return location;
+
+        return new EntityLocation(worldId,
+                                  location.getX(),
+                                  location.getY(),
+                                  location.getZ(),
+                                  location.getPitch(),
+                                  location.getYaw());
+    }
+
+    public static boolean isUsingColumnarStorage()
+    { return columnarStorage; }
+
+    /*
+     * Where set, players' homes are held in memory as columns of primitives rather than as home objects, creating those
+     * when asked for. Takes effect for homes lists created from then on, as on next load.
+     */
+    public static void setUsingColumnarStorage(boolean columnarStorage)
+    { Homes.columnarStorage = columnarStorage; }
+
+    public static boolean isUsingPerPlayerStorage()
+    { return perPlayerStorage; }
+
+    // Saves each player's homes to a file of their own rather than to one homes file, and only reads a player's homes
+    // when they log in or their homes are otherwise accessed. Homes of players who have been offline for the eviction
+    // idle time are saved if need be and dropped from memory. Takes effect on next load, at which point homes are moved
+    // from whichever storage isn't in use to the one that is.
+    public static void setUsingPerPlayerStorage(boolean perPlayerStorage)
+    { Homes.perPlayerStorage = perPlayerStorage; }
+
+    public static long getEvictionIdleSeconds()
+    { return evictionIdleSeconds; }
+
+    public static void setEvictionIdleSeconds(long evictionIdleSeconds)
+    {
+        if(evictionIdleSeconds < 0)
+            throw new IllegalArgumentException("The eviction idle time may not be negative.");
+
+        Homes.evictionIdleSeconds = evictionIdleSeconds;
+    }
+
+    private static Path getSaveFileLocation(SaveFormat format)
+    { return format == SaveFormat.BINARY ? getBinarySaveFileLocation() : saveFileLocation; }
+
+    private static Path getSaveFileBackupLocation(SaveFormat format)
+    { return format == SaveFormat.BINARY ? binarySaveFileBackupLocation : saveFileBackupLocation; }
+
+    /*
+     * Each compaction writes the binary homes file under a new name, homes.<number>.dat, rather than replacing the last
+     * one, as the last one may be mapped into memory, and a mapped file can't be replaced on some platforms, such as
+     * Windows. The file with the highest number is the current one. homes.dat, from before the files were numbered,
+     * counts as number 0.
+     */
+    private static Path getBinarySaveFileLocation(long number)
+    { return NintiCore.DATA_FOLDER.resolve(number == 0 ? "homes.dat" : "homes." + number + ".dat"); }
+
+    // Where there's no binary homes file, returns where the first would be written.
+    private static Path getBinarySaveFileLocation()
+    {
+        TreeMap<Long, Path> binarySaveFiles = listBinarySaveFiles();
+        return binarySaveFiles.isEmpty() ? getBinarySaveFileLocation(1) : binarySaveFiles.lastEntry().getValue();
+    }
+
+    // By number.
+    private static TreeMap<Long, Path> listBinarySaveFiles()
+    {
+        TreeMap<Long, Path> result = new TreeMap<>();
+
+        if(Files.exists(getBinarySaveFileLocation(0)))
+            result.put(0L, getBinarySaveFileLocation(0));
+
+        if(!Files.isDirectory(NintiCore.DATA_FOLDER))
+            return result;
+
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(NintiCore.DATA_FOLDER, "homes.*.dat"))
+        {
+            for(Path file : files)
             {
-                e.printStackTrace();
-                System.err.println("Could not read the homes file, so the homes registry is empty.");
-                homesLists.clear();
+                String fileName = file.getFileName().toString();
+                long number;
+
+                try
+                { number = Long.parseLong(fileName.substring("homes.".length(), fileName.length() - ".dat".length())); }
+                catch(NumberFormatException e)
+                { continue; }
+
+                if(number > 0)
+                    result.put(number, file);
             }
         }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not list binary homes files.");
+        }
+
+        return result;
+    }
+
+    private static Path getPlayerSaveFileLocation(UUID playerId)
+    { return playerSaveFilesLocation.resolve(playerId + ".csv"); }
+
+    public static long getCheckpointIntervalSeconds()
+    {
+        synchronized(checkpointLock)
+        { return checkpointIntervalSeconds; }
+    }
+
+    public static void setCheckpointIntervalSeconds(long checkpointIntervalSeconds)
+    {
+        if(checkpointIntervalSeconds < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be at least one second.");
+
+        synchronized(checkpointLock)
+        {
+            Homes.checkpointIntervalSeconds = checkpointIntervalSeconds;
+
+            if(checkpointExecutor != null)
+            {
+                stopCheckpointing();
+                startCheckpointing();
+            }
+        }
+    }
+
+    public static int save()
+    { return Math.max(requestSave(false).join(), 0); }
+
+    public static CompletableFuture<Integer> saveAsync()
+    { return requestSave(false).thenApply(recordsWritten -> Math.max(recordsWritten, 0)); }
+
+    public static int compact()
+    { return Math.max(requestSave(true).join(), 0); }
+
+    public static CompletableFuture<Integer> compactAsync()
+    { return requestSave(true).thenApply(recordsWritten -> Math.max(recordsWritten, 0)); }
+
+    private static CompletableFuture<Integer> requestSave(boolean forceCompaction)
+    {
+        // The snapshot is taken on the calling thread, and written on the save thread. Saves requested while another
+        // is being written are combined into one, which takes its snapshot once the current save is written.
+
+        synchronized(saveQueueLock)
+        {
+            if(saveIsRunning)
+            {
+                followUpSaveShouldCompact |= forceCompaction;
+
+                if(followUpSave == null)
+                    followUpSave = new CompletableFuture<>();
+
+                return followUpSave;
+            }
+
+            SaveSnapshot snapshot = takeSnapshot(forceCompaction);
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            saveIsRunning = true;
+            saveExecutor.execute(() -> runSaves(snapshot, result));
+            return result;
+        }
+    }
+
+    private static void runSaves(SaveSnapshot snapshot, CompletableFuture<Integer> result)
+    {
+        while(true)
+        {
+            result.complete(writeSnapshot(snapshot));
+
+            synchronized(saveQueueLock)
+            {
+                if(followUpSave == null)
+                {
+                    saveIsRunning = false;
+                    saveQueueLock.notifyAll();
+                    return;
+                }
+
+                snapshot = takeSnapshot(followUpSaveShouldCompact);
+                result = followUpSave;
+                followUpSave = null;
+                followUpSaveShouldCompact = false;
+            }
+        }
+    }
+
+    // Must be called while holding saveQueueLock.
+    private static void awaitSaves()
+    {
+        boolean interrupted = false;
+
+        while(saveIsRunning)
+        {
+            try
+            { saveQueueLock.wait(); }
+            catch(InterruptedException e)
+            { interrupted = true; }
+        }
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // Must be called while holding saveQueueLock, so snapshots are written in the order they're taken.
+    private static SaveSnapshot takeSnapshot(boolean forceCompaction)
+    {
+        boolean isPerPlayer = storedPlayerIds != null;
+
+        // Where each player has their own save file, there's no changes file to compact.
+        boolean isCompaction = forceCompaction
+                               || (!isPerPlayer && (savesSinceCompaction >= savesPerCompaction
+                                                    || !Files.exists(getSaveFileLocation(saveFormat))));
+
+        List<PlayerHomesList> changedHomesLists = takeDirtyHomesLists();
+        Collection<PlayerHomesList> homesListsToSave;
+        MappedHomesFile unloadedHomesToSave = null;
+        BitSet unloadedPlayerIndicesToSave = null;
+
+        if(isCompaction)
+        {
+            // Players not yet loaded are gathered before iterating over the registry, so players loaded meanwhile
+            // are still saved.
+            synchronized(registryLock)
+            {
+                if(unloadedHomes != null)
+                {
+                    unloadedHomesToSave = unloadedHomes;
+                    unloadedPlayerIndicesToSave = unloadedHomes.getUntakenPlayerIndices();
+                }
+            }
+
+            homesListsToSave = homesLists.values();
+        }
+        else
+            homesListsToSave = changedHomesLists;
+
+        Map<UUID, List<PlayerHome>> homes = new LinkedHashMap<>();
+
+        for(PlayerHomesList pHomesList : homesListsToSave)
+            homes.put(pHomesList.getPlayerId(), pHomesList.getHomes());
+
+        return new SaveSnapshot(isCompaction,
+                                isPerPlayer,
+                                saveFormat,
+                                changedHomesLists,
+                                homes,
+                                unloadedHomesToSave,
+                                unloadedPlayerIndicesToSave);
+    }
+
+    private static int writeSnapshot(SaveSnapshot snapshot)
+    {
+        long startedAt = System.nanoTime();
+        Object event = HomesJfr.beginSave();
+        long changesFileSizeBefore = snapshot.isPerPlayer ? 0 : getFileSize(saveFileChangesLocation);
+        boolean compactionFailed = false;
+        int recordsWritten;
+
+        try
+        {
+            if(snapshot.isPerPlayer)
+                recordsWritten = writePlayerSaveFiles(snapshot);
+            else if(snapshot.isCompaction)
+            {
+                recordsWritten = writeHomesFile(snapshot);
+
+                // The snapshot has all loaded players' homes, so can be saved to the changes file instead, so as not
+                // to lose them.
+                if(recordsWritten == couldNotReplaceHomesFile)
+                {
+                    compactionFailed = true;
+                    recordsWritten = writeChangesFile(snapshot);
+                }
+            }
+            else
+                recordsWritten = writeChangesFile(snapshot);
+        }
+        catch(RuntimeException e)
+        {
+            e.printStackTrace();
+            recordsWritten = -1;
+        }
+
+        boolean isChangesFile = !snapshot.isPerPlayer && (!snapshot.isCompaction || compactionFailed);
+
+        synchronized(saveQueueLock)
+        {
+            if(recordsWritten < 0)
+                restoreDirtyHomesLists(snapshot.changedHomesLists);
+            else if(compactionFailed) // Tried again after the usual number of saves, rather than on every save.
+                savesSinceCompaction = 0;
+            else if(!snapshot.isCompaction)
+                savesSinceCompaction++;
+            else if(Files.exists(saveFileChangesLocation)) // Couldn't be deleted, so compact again next save.
+                savesSinceCompaction = savesPerCompaction;
+            else
+                savesSinceCompaction = 0;
+        }
+
+        if(recordsWritten >= 0)
+        {
+            HomesMetrics.save.recordSince(startedAt);
+            long bytesWritten = 0;
+
+            if(snapshot.isPerPlayer)
+            {
+                for(UUID playerId : snapshot.homes.keySet())
+                    bytesWritten += getFileSize(getPlayerSaveFileLocation(playerId));
+            }
+            else if(isChangesFile)
+                bytesWritten = getFileSize(saveFileChangesLocation) - changesFileSizeBefore;
+            else
+                bytesWritten = getFileSize(getSaveFileLocation(snapshot.format));
+
+            HomesMetrics.recordBytesSaved(bytesWritten);
+            HomesJfr.commitSave(event,
+                                snapshot.isCompaction && !compactionFailed,
+                                snapshot.isPerPlayer,
+                                snapshot.format,
+                                recordsWritten,
+                                bytesWritten);
+
+            System.out.println("Homes saved. (" + recordsWritten + " records written)");
+        }
+
+        return recordsWritten;
+    }
+
+    // Returns 0 where the file doesn't exist or can't be read.
+    private static long getFileSize(Path location)
+    {
+        try
+        { return Files.exists(location) ? Files.size(location) : 0; }
+        catch(IOException e)
+        { return 0; }
+    }
+
+    private static int writeChangesFile(SaveSnapshot snapshot)
+    {
+        // CSV file, same columns as the homes file.
+        // A row with only a player ID marks that player's homes as having been replaced by the rows that follow.
+
+        if(snapshot.homes.isEmpty())
+            return 0;
+
+        int recordsWritten = 0;
+
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(saveFileChangesLocation.toFile(), true)))
+        {
+            for(Map.Entry<UUID, List<PlayerHome>> pHomes : snapshot.homes.entrySet())
+            {
+                String playerId = pHomes.getKey().toString();
+                writer.write(StringUtils.toCSVRow(Collections.singletonList(playerId), true));
+                writer.newLine();
+
+                for(PlayerHome pHome : pHomes.getValue())
+                {
+                    writer.write(StringUtils.toCSVRow(HomesCsvFile.homeToRow(playerId, pHome), true));
+                    writer.newLine();
+                    recordsWritten++;
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not save changes to homes.");
+            return -1;
+        }
+
+        return recordsWritten;
+    }
+
+    // Returns couldNotReplaceHomesFile where the homes file couldn't be replaced, in which case it's left as it was.
+    private static int writeHomesFile(SaveSnapshot snapshot)
+    {
+        Map<UUID, List<PlayerHome>> homes = snapshot.getAllHomes();
+        int recordsWritten = snapshot.format == SaveFormat.BINARY ? writeBinaryHomesFile(homes)
+                                                                  : writeCsvHomesFile(homes);
+
+        if(recordsWritten < 0)
+            return recordsWritten;
+
+        // A homes file in the other format is now out of date, and shouldn't be loaded in future.
+        moveHomesFileToBackup(snapshot.format == SaveFormat.BINARY ? SaveFormat.CSV : SaveFormat.BINARY);
+        deleteChangesFile();
+        deletePlayerSaveFiles();
+        return recordsWritten;
+    }
+
+    private static int writeCsvHomesFile(Map<UUID, List<PlayerHome>> homes)
+    {
+        Path tempLocation = saveFileLocation.resolveSibling(saveFileLocation.getFileName() + ".tmp");
+        int recordsWritten;
+
+        // Written elsewhere first, so the homes file's only replaced once the new one's complete.
+        try
+        { recordsWritten = HomesCsvFile.write(tempLocation, homes); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not save homes file.");
+            deleteTempHomesFile(tempLocation);
+            return -1;
+        }
+
+        try
+        {
+            if(Files.exists(saveFileLocation))
+                Files.move(saveFileLocation, saveFileBackupLocation, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not compact homes file - could not move homes file to backup location.");
+            deleteTempHomesFile(tempLocation);
+            return couldNotReplaceHomesFile;
+        }
+
+        try
+        { Files.move(tempLocation, saveFileLocation, StandardCopyOption.REPLACE_EXISTING); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not compact homes file - could not move new homes file into place.");
+            deleteTempHomesFile(tempLocation);
+
+            try
+            { Files.move(saveFileBackupLocation, saveFileLocation, StandardCopyOption.REPLACE_EXISTING); }
+            catch(IOException e2)
+            {
+                e2.printStackTrace();
+                System.err.println("Could not restore homes file - could not move old homes file to proper location."
+                                   + "\nIt should be at: " + saveFileBackupLocation);
+            }
+
+            return couldNotReplaceHomesFile;
+        }
+
+        return recordsWritten;
+    }
+
+    // Nothing is moved or replaced, so whichever binary homes file is mapped into memory is left in place.
+    private static int writeBinaryHomesFile(Map<UUID, List<PlayerHome>> homes)
+    {
+        TreeMap<Long, Path> oldLocations = listBinarySaveFiles();
+        long number = oldLocations.isEmpty() ? 1 : oldLocations.lastKey() + 1;
+        Path location = getBinarySaveFileLocation(number);
+        Path tempLocation = location.resolveSibling(location.getFileName() + ".tmp");
+        int recordsWritten;
+
+        try
+        {
+            recordsWritten = HomesBinaryFile.write(tempLocation, homes);
+            Files.move(tempLocation, location, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not save homes file.");
+            deleteTempHomesFile(tempLocation);
+            return -1;
+        }
+
+        // The last homes file is kept as a backup. Any before it are no longer needed, other than one still mapped.
+        deleteBinarySaveFiles(oldLocations.headMap(number - 1).values(), true);
+        return recordsWritten;
+    }
+
+    private static int writePlayerSaveFiles(SaveSnapshot snapshot)
+    {
+        // One CSV file per player, in the same format as the homes file. Players without homes have no file.
+
+        if(snapshot.homes.isEmpty())
+            return 0;
+
+        try
+        { Files.createDirectories(playerSaveFilesLocation); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not save homes - could not create the folder for players' homes files.");
+            return -1;
+        }
+
+        int recordsWritten = 0;
+        boolean allWritten = true;
+
+        for(Map.Entry<UUID, List<PlayerHome>> pHomes : snapshot.homes.entrySet())
+        {
+            UUID playerId = pHomes.getKey();
+            Path location = getPlayerSaveFileLocation(playerId);
+            boolean hasHomes = !pHomes.getValue().isEmpty();
+
+            try
+            {
+                if(hasHomes)
+                {
+                    Path tempLocation = playerSaveFilesLocation.resolve(playerId + ".csv.tmp");
+                    recordsWritten += HomesCsvFile.write(tempLocation,
+                                                         Collections.singletonMap(playerId, pHomes.getValue()));
+                    Files.move(tempLocation, location, StandardCopyOption.REPLACE_EXISTING);
+                }
+                else
+                    Files.deleteIfExists(location);
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                System.err.println("Could not save the homes of player " + playerId + ".");
+                allWritten = false;
+                continue;
+            }
+
+            Set<UUID> storedPlayerIds = Homes.storedPlayerIds;
+
+            if(storedPlayerIds != null)
+            {
+                if(hasHomes)
+                    storedPlayerIds.add(playerId);
+                else
+                    storedPlayerIds.remove(playerId);
+            }
+        }
+
+        if(!allWritten)
+            return -1;
+
+        // Compacting writes every player in memory, so the homes files they were read from are no longer needed.
+        if(snapshot.isCompaction)
+        {
+            moveHomesFileToBackup(SaveFormat.CSV);
+            moveHomesFileToBackup(SaveFormat.BINARY);
+            deleteChangesFile();
+        }
+
+        return recordsWritten;
+    }
+
+    private static void moveHomesFileToBackup(SaveFormat format)
+    {
+        if(format == SaveFormat.BINARY)
+        {
+            moveBinaryHomesFileToBackup();
+            return;
+        }
+
+        try
+        {
+            if(Files.exists(getSaveFileLocation(format)))
+                Files.move(getSaveFileLocation(format),
+                           getSaveFileBackupLocation(format),
+                           StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not move out-of-date homes file to backup location: "
+                               + getSaveFileLocation(format));
+        }
+    }
+
+    private static void moveBinaryHomesFileToBackup()
+    {
+        TreeMap<Long, Path> locations = listBinarySaveFiles();
+
+        if(locations.isEmpty())
+            return;
+
+        Path location = locations.lastEntry().getValue();
+
+        try
+        { Files.move(location, binarySaveFileBackupLocation, StandardCopyOption.REPLACE_EXISTING); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not move out-of-date homes file to backup location: " + location);
+            return;
+        }
+
+        // Even a file still mapped is out of date now, so it shouldn't be loaded in future.
+        deleteBinarySaveFiles(locations.headMap(locations.lastKey()).values(), false);
+    }
+
+    // Where keepMapped is true, the binary homes file mapped into memory, if any, isn't deleted. Homes not yet loaded
+    // are still read from it, and it can't be deleted on some platforms.
+    private static void deleteBinarySaveFiles(Collection<Path> locations, boolean keepMapped)
+    {
+        MappedHomesFile unloadedHomes = Homes.unloadedHomes;
+
+        for(Path location : locations)
+        {
+            if(keepMapped && unloadedHomes != null && location.equals(unloadedHomes.getLocation()))
+                continue;
+
+            try
+            { Files.deleteIfExists(location); }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                System.err.println("Could not delete out-of-date homes file, will try again on next compaction: "
+                                   + location);
+            }
+        }
+    }
+
+    private static void deleteTempHomesFile(Path tempLocation)
+    {
+        try
+        { Files.deleteIfExists(tempLocation); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not delete temporary homes file: " + tempLocation);
+        }
+    }
+
+    private static void deleteChangesFile()
+    {
+        try
+        { Files.deleteIfExists(saveFileChangesLocation); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not delete the homes changes file, it will be compacted again on next save.");
+        }
+    }
+
+    private static boolean hasPlayerSaveFiles()
+    { return !listPlayerSaveFiles().isEmpty(); }
+
+    private static Set<UUID> listPlayerSaveFiles()
+    {
+        Set<UUID> result = ConcurrentHashMap.newKeySet();
+
+        if(!Files.isDirectory(playerSaveFilesLocation))
+            return result;
+
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(playerSaveFilesLocation, "*.csv"))
+        {
+            for(Path file : files)
+            {
+                String fileName = file.getFileName().toString();
+
+                try
+                { result.add(UUID.fromString(fileName.substring(0, fileName.length() - ".csv".length()))); }
+                catch(IllegalArgumentException e)
+                { System.err.println("Player homes file not named after a player ID, skipping: " + file); }
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not list players' homes files.");
+        }
+
+        return result;
+    }
+
+    private static List<PlayerHome> readPlayerSaveFile(UUID playerId)
+    {
+        Path location = getPlayerSaveFileLocation(playerId);
+        HomesCsvFile.ParseResult parsed;
+
+        try
+        { parsed = HomesCsvFile.read(location); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not read the homes of player " + playerId + " from " + location);
+            return Collections.emptyList();
+        }
+
+        for(String error : parsed.errors)
+            System.err.println(error);
+
+        List<PlayerHome> result = new ArrayList<>(parsed.homes.size());
+
+        for(HomesCsvFile.ParsedHome home : parsed.homes)
+            result.add(new PlayerHome(playerId, home.homeName, home.location));
+
+        return result;
+    }
+
+    // Once all homes are in the homes file, players' own files are out of date, and shouldn't be loaded in future.
+    private static void deletePlayerSaveFiles()
+    {
+        for(UUID playerId : listPlayerSaveFiles())
+        {
+            try
+            { Files.deleteIfExists(getPlayerSaveFileLocation(playerId)); }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                System.err.println("Could not delete out-of-date player homes file: "
+                                   + getPlayerSaveFileLocation(playerId));
+            }
+        }
+    }
+
+    private static HomesCsvFile.ParseResult readCsvHomesFile(Path location) throws IOException
+    {
+        if(!parallelLoading)
+            return HomesCsvFile.read(location);
+
+        if(!Files.exists(location))
+            throw new FileNotFoundException(location.toString());
+
+        HomesCsvFile.ParseResult result = HomesCsvFile.readInParallel(location);
+
+        if(verifyParallelLoading)
+            HomesCsvFile.compare(HomesCsvFile.read(location), result);
+
+        return result;
+    }
+
+    // Writes every home in the registry to a CSV file in the same format as homes.csv.
+    public static int exportCsv(Path location) throws IOException
+    {
+        Map<UUID, List<PlayerHome>> homes = new LinkedHashMap<>();
+
+        for(PlayerHomesList pHomesList : getAllPlayerHomeLists())
+            homes.put(pHomesList.getPlayerId(), pHomesList.getHomes());
+
+        return HomesCsvFile.write(location, homes);
+    }
+
+    // Adds every home in a CSV file in the same format as homes.csv to the registry, replacing homes of the same name.
+    public static void importCsv(Path location) throws IOException
+    {
+        HomesCsvFile.ParseResult parsed = readCsvHomesFile(location);
+
+        for(String error : parsed.errors)
+            System.err.println(error);
+
+        for(HomesCsvFile.ParsedHome home : parsed.homes)
+            getFor(home.playerId).setHome(home.homeName, home.location);
+    }
+
+    public static void load()
+    {
+        long startedAt = System.nanoTime();
+        Object event = HomesJfr.beginLoad();
+        long bytesRead;
+        int journalRecordsReplayed;
+        boolean journalNeedsSaving;
+        boolean isMigrating;
+
+        synchronized(checkpointLock)
+        {
+            stopCheckpointing();
+            journal.close();
+
+            synchronized(saveQueueLock)
+            {
+                awaitSaves();
+
+                Path binarySaveFileLocation = getBinarySaveFileLocation();
+
+                // Homes are moved from whichever of the homes file and players' own files isn't in use to the other.
+                boolean migratingFromPlayerFiles = !perPlayerStorage && hasPlayerSaveFiles();
+                boolean migratingToPlayerFiles = perPlayerStorage && (Files.exists(saveFileLocation)
+                                                                      || Files.exists(binarySaveFileLocation)
+                                                                      || Files.exists(saveFileChangesLocation));
+                boolean readHomesFile = !perPlayerStorage || migratingToPlayerFiles;
+                isMigrating = migratingFromPlayerFiles || migratingToPlayerFiles;
+
+                SaveFormat otherFormat = saveFormat == SaveFormat.BINARY ? SaveFormat.CSV : SaveFormat.BINARY;
+                SaveFormat formatToLoad = (Files.exists(getSaveFileLocation(saveFormat))
+                                           || !Files.exists(getSaveFileLocation(otherFormat)))
+                                                  ? saveFormat
+                                                  : otherFormat;
+
+                bytesRead = (readHomesFile ? getFileSize(getSaveFileLocation(formatToLoad)) : 0)
+                            + getFileSize(saveFileChangesLocation);
+
+                HomesMetrics.recordBytesLoaded(bytesRead);
+
+                // The CSV homes file is parsed before taking the registry's lock, and registered all in one go.
+                HomesCsvFile.ParseResult parsedCsv = null;
+                IOException csvException = null;
+
+                if(readHomesFile && formatToLoad == SaveFormat.CSV)
+                {
+                    try
+                    { parsedCsv = readCsvHomesFile(saveFileLocation); }
+                    catch(IOException e)
+                    { csvException = e; }
+                }
+
+                synchronized(registryLock)
+                {
+                    homesLists.clear();
+                    unloadedHomes = null;
+                    storedPlayerIds = null;
+                    spatialIndex = null;
+                    playerNameIndex = null;
+                    homeNamePool.clear();
+
+                    try
+                    {
+                        if(!readHomesFile)
+                            System.out.println("Homes will be loaded as players log in.");
+                        else if(formatToLoad == SaveFormat.BINARY)
+                        {
+                            if(!Files.exists(binarySaveFileLocation))
+                                throw new FileNotFoundException(binarySaveFileLocation.toString());
+
+                            if(lazyLoading && !isMigrating)
+                                unloadedHomes = mapHomesFile(binarySaveFileLocation);
+
+                            if(unloadedHomes == null)
+                                HomesBinaryFile.read(binarySaveFileLocation,
+                                                     (playerId, homeName, location)
+                                                             -> getFor(playerId).setHome(homeName, location));
+                        }
+                        else
+                        {
+                            if(csvException != null)
+                                throw csvException;
+
+                            registerParsedHomes(parsedCsv);
+                        }
+
+                        if(readHomesFile)
+                            System.out.println("Homes loaded.");
+                    }
+                    catch(FileNotFoundException e)
+                    {
+                        e.printStackTrace();
+                        System.out.println("No existing homes file, so the homes registry is empty.");
+                    }
+                    catch(IOException e)
+                    {
+                        e.printStackTrace();
+                        System.err.println("Could not read the homes file, so the homes registry is empty.");
+                        homesLists.clear();
+                        unloadedHomes = null;
+                    }
+
+                    loadChanges();
+
+                    if(migratingFromPlayerFiles)
+                        readAllPlayerSaveFiles();
+
+                    // Players' own files are only read once the homes file has been, as where a player's homes are in
+                    // both, they're as of the last time they were in the homes file.
+                    if(perPlayerStorage)
+                        storedPlayerIds = listPlayerSaveFiles();
+
+                    takeDirtyHomesLists();
+                    savesSinceCompaction = 0;
+
+                    // Homes being migrated are marked as changed until they've been compacted into their new storage,
+                    // so they aren't evicted beforehand.
+                    if(isMigrating)
+                        restoreDirtyHomesLists(homesLists.values());
+
+                    // Homes replayed from the journal are left marked as changed, and saved straight away so the
+                    // journal can be started afresh.
+                    journalRecordsReplayed = journal.replay();
+                    journalNeedsSaving = journalRecordsReplayed != 0;
+                }
+            }
+
+            if(!(journalNeedsSaving || isMigrating) || requestSave(isMigrating).join() >= 0)
+                journal.deleteAll();
+
+            try
+            { journal.open(); }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                System.err.println("Could not open the homes journal. Changes to homes won't be journalled.");
+            }
+
+            startCheckpointing();
+        }
+
+        // Started now, so it's likely to be ready by the time it's first needed.
+        getPlayerNameIndex();
+        HomesMetrics.load.recordSince(startedAt);
+
+        if(event != null)
+            HomesJfr.commitLoad(event,
+                                unloadedHomes != null || storedPlayerIds != null,
+                                countLoadedPlayers(),
+                                countLoadedHomes(),
+                                journalRecordsReplayed,
+                                bytesRead);
+    }
+
+    // Must be called while holding registryLock. Where a player has more than one home of the same name, the
+    // later one wins, as it would if the homes were set one at a time.
+    private static void registerParsedHomes(HomesCsvFile.ParseResult parsed)
+    {
+        for(String error : parsed.errors)
+            System.err.println(error);
+
+        Map<UUID, List<PlayerHome>> homesByPlayer = new LinkedHashMap<>();
+
+        for(HomesCsvFile.ParsedHome home : parsed.homes)
+            homesByPlayer.computeIfAbsent(home.playerId, playerId -> new ArrayList<>())
+                         .add(new PlayerHome(home.playerId, home.homeName, home.location));
+
+        for(Map.Entry<UUID, List<PlayerHome>> pHomes : homesByPlayer.entrySet())
+            getFor(pHomes.getKey()).loadHomes(pHomes.getValue());
+    }
+
+    // Must be called while holding registryLock. A player's own file replaces whatever homes they had in the
+    // homes file.
+    private static void readAllPlayerSaveFiles()
+    {
+        for(UUID playerId : listPlayerSaveFiles())
+        {
+            PlayerHomesList phl = new PlayerHomesList(playerId);
+            phl.loadHomes(readPlayerSaveFile(playerId));
+            homesLists.put(playerId, phl);
+        }
+
+        System.out.println("Homes moved from players' own files loaded.");
+    }
+
+    // Compacting writes a new homes file rather than replacing this one, so it may stay mapped until the next load.
+    private static MappedHomesFile mapHomesFile(Path location)
+    {
+        try
+        { return MappedHomesFile.open(location); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not map the homes file into memory, reading it instead.");
+            return null;
+        }
+    }
+
+    // Folds the journal into the saved homes, so it needn't be replayed on load.
+    public static void checkpoint()
+    {
+        synchronized(checkpointLock)
+        {
+            journal.rotate();
+
+            if(journal.hasRotated() && requestSave(false).join() >= 0)
+                journal.deleteRotated();
+        }
+    }
+
+    // Waits for any save in progress, then saves whatever's changed since.
+    public static void shutdown()
+    {
+        synchronized(checkpointLock)
+        {
+            stopCheckpointing();
+            journal.close();
+
+            if(requestSave(false).join() >= 0)
+                journal.deleteAll();
+        }
+    }
+
+    private static void startCheckpointing()
+    {
+        synchronized(checkpointLock)
+        {
+            if(checkpointExecutor != null)
+                return;
+
+            checkpointExecutor = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, "NintiHomes maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            checkpointExecutor.scheduleWithFixedDelay(Homes::checkpoint,
+                                                      checkpointIntervalSeconds,
+                                                      checkpointIntervalSeconds,
+                                                      TimeUnit.SECONDS);
+
+            checkpointExecutor.scheduleWithFixedDelay(Homes::evictIdleHomesLists,
+                                                      evictionCheckIntervalSeconds,
+                                                      evictionCheckIntervalSeconds,
+                                                      TimeUnit.SECONDS);
+        }
+    }
+
+    private static void stopCheckpointing()
+    {
+        synchronized(checkpointLock)
+        {
+            if(checkpointExecutor == null)
+                return;
+
+            checkpointExecutor.shutdown();
+            checkpointExecutor = null;
+        }
+    }
+
+    static boolean isOnline(UUID playerId)
+    {
+        synchronized(onlinePlayers)
+        { return onlinePlayers.contains(playerId); }
+    }
+
+    // Drops cached permission statuses, so permissions are checked afresh. Cached statuses expire after a few seconds
+    // regardless, but this may be called where players' permissions have changed for the change to apply straight away.
+    public static void onPermissionsChanged()
+    { CachedPermissions.invalidateAll(); }
+
+    public static void onPermissionsChanged(UUID playerId)
+    { CachedPermissions.invalidate(playerId); }
+
+    static void onPlayerLoggedIn(UUID playerId)
+    {
+        synchronized(onlinePlayers)
+        { onlinePlayers.add(playerId); }
+
+        CachedPermissions.invalidate(playerId);
+
+        // Players' usernames may have changed since they were last online.
+        PlayerNameIndex playerNameIndex = Homes.playerNameIndex;
+
+        if(playerNameIndex != null && playerNameIndex.contains(playerId))
+            playerNameIndex.update(playerId);
+
+        if(storedPlayerIds != null)
+            getForIfPresent(playerId);
+    }
+
+    static void onPlayerLoggedOut(UUID playerId)
+    {
+        synchronized(onlinePlayers)
+        { onlinePlayers.remove(playerId); }
+
+        CachedPermissions.invalidate(playerId);
+
+        PlayerHomesList phl = homesLists.get(playerId);
+
+        // Players' homes are evicted once they've been offline for the eviction idle time.
+        if(phl != null)
+            phl.markUsed();
+    }
+
+    private static boolean isIdle(PlayerHomesList homesList, long lastUsedCutoff)
+    {
+        synchronized(onlinePlayers)
+        {
+            if(onlinePlayers.contains(homesList.getPlayerId()))
+                return false;
+        }
+
+        return homesList.getLastUsedMillis() < lastUsedCutoff;
+    }
+
+    // Where per-player storage is in use, drops the homes of players who are offline and haven't had their homes
+    // accessed for the eviction idle time from memory, saving them first if they've changed.
+    private static void evictIdleHomesLists()
+    {
+        long lastUsedCutoff = System.currentTimeMillis() - getEvictionIdleSeconds() * 1000;
+        List<PlayerHomesList> idleHomesLists = new ArrayList<>();
+
+        if(storedPlayerIds == null)
+            return;
+
+        for(PlayerHomesList phl : homesLists.values())
+            if(isIdle(phl, lastUsedCutoff))
+                idleHomesLists.add(phl);
+
+        if(idleHomesLists.isEmpty())
+            return;
+
+        boolean anyChanged;
+
+        synchronized(dirtyHomesLists)
+        { anyChanged = !Collections.disjoint(dirtyHomesLists, idleHomesLists); }
+
+        if(anyChanged && requestSave(false).join() < 0)
+            return;
+
+        int evicted = 0;
+
+        synchronized(saveQueueLock)
+        {
+            // A save being written may include homes about to be evicted, which would be read back before they're
+            // written if accessed again.
+            awaitSaves();
+            long waitStartedAt = System.nanoTime();
+
+            synchronized(registryLock)
+            {
+                HomesMetrics.registryLockWait.recordSince(waitStartedAt);
+
+                synchronized(dirtyHomesLists)
+                {
+                    for(PlayerHomesList phl : idleHomesLists)
+                    {
+                        if(dirtyHomesLists.contains(phl)
+                           || !isIdle(phl, lastUsedCutoff)
+                           || !homesLists.remove(phl.getPlayerId(), phl))
+                        {
+                            continue;
+                        }
+
+                        // Got and marked as used between being checked and being removed. (See markUsedIfRegistered)
+                        // Nothing else can have been registered for the player meanwhile, as that's done while holding
+                        // registryLock.
+                        if(!isIdle(phl, lastUsedCutoff))
+                        {
+                            homesLists.put(phl.getPlayerId(), phl);
+                            continue;
+                        }
+
+                        evicted++;
+                    }
+                }
+            }
+        }
+
+        if(evicted > 0)
+            System.out.println("Homes of " + evicted + " offline players evicted from memory.");
+    }
+
+    private static void loadChanges()
+    {
+        if(!Files.exists(saveFileChangesLocation))
+            return;
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(saveFileChangesLocation.toFile())))
+        {
+            String line;
+
+            while((line = reader.readLine()) != null)
+            {
+                List<String> fields = StringUtils.parseCSVRow(line);
+
+                if(fields.size() != 1)
+                {
+                    loadHomeRecord(line, fields);
+                    continue;
+                }
+
+                try
+                { getFor(UUID.fromString(fields.get(0))).clear(); }
+                catch(IllegalArgumentException e)
+                { System.err.println("Malformed player ID, skipping: " + fields.get(0)); }
+            }
+
+            System.out.println("Changes to homes loaded.");
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not read the homes changes file, so homes may be as of the last compaction.");
+        }
+    }
+
+    static void loadHomeRecord(String line, List<String> fields)
+    {
+        HomesCsvFile.ParsedHome home = HomesCsvFile.parseRecord(line, fields, System.err::println);
+
+        if(home != null)
+            getFor(home.playerId).setHome(home.homeName, home.location);
     }
 }
@@ -0,0 +1,274 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+final class HomesBinaryFile
+{
+    /*
+
+    Binary homes file, big-endian.
+
+    int magic number ("NHOM")
+    int format version
+
+    Then three kinds of block, each in the form:
+        int payload length in bytes
+        int CRC32 of the payload
+        payload
+
+    String table block, containing every home name and world ID, each only once:
+        int number of strings
+        modified UTF-8 strings, as per DataOutput.writeUTF
+
+    Player directory block, players sorted by ID:
+        int number of players
+        per player: long most significant bits of ID, long least significant bits of ID, int number of homes
+
+    Record blocks, containing every home in the order of the player directory, each block holding exactly
+    recordsPerBlock records (except the last, which may hold fewer):
+        per home: int string table index of name, int string table index of world ID, double x, double y, double z,
+                  double pitch, double yaw
+
+     */
+
+    @FunctionalInterface
+    interface HomeConsumer
+    { void accept(UUID playerId, String homeName, EntityLocation location); }
+
+    static final int magicNumber = 0x4E484F4D;
+    static final int formatVersion = 1;
+    static final int recordSize = 4 + 4 + 8 * 5;
+    static final int recordsPerBlock = 1024;
+    static final int blockHeaderSize = 8;
+
+    private HomesBinaryFile()
+    {}
+
+    public static int write(Path location, Map<UUID, List<PlayerHome>> homes) throws IOException
+    {
+        List<Map.Entry<UUID, List<PlayerHome>>> players = new ArrayList<>(homes.size());
+
+        for(Map.Entry<UUID, List<PlayerHome>> pHomes : homes.entrySet())
+            if(!pHomes.getValue().isEmpty())
+                players.add(pHomes);
+
+        players.sort(Map.Entry.comparingByKey());
+
+        Map<String, Integer> stringIndices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        for(Map.Entry<UUID, List<PlayerHome>> pHomes : players)
+        {
+            for(PlayerHome pHome : pHomes.getValue())
+            {
+                indexString(pHome.getName(), stringIndices, strings);
+                indexString(pHome.getLocation().getWorldId(), stringIndices, strings);
+            }
+        }
+
+        int recordsWritten = 0;
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(location),
+                                                                                 1 << 16)))
+        {
+            out.writeInt(magicNumber);
+            out.writeInt(formatVersion);
+
+            ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+            DataOutputStream blockOut = new DataOutputStream(blockBytes);
+            blockOut.writeInt(strings.size());
+
+            for(String s : strings)
+                blockOut.writeUTF(s);
+
+            writeBlock(out, blockBytes.toByteArray(), blockBytes.size());
+
+            blockBytes.reset();
+            blockOut.writeInt(players.size());
+
+            for(Map.Entry<UUID, List<PlayerHome>> pHomes : players)
+            {
+                blockOut.writeLong(pHomes.getKey().getMostSignificantBits());
+                blockOut.writeLong(pHomes.getKey().getLeastSignificantBits());
+                blockOut.writeInt(pHomes.getValue().size());
+            }
+
+            writeBlock(out, blockBytes.toByteArray(), blockBytes.size());
+
+            ByteBuffer records = ByteBuffer.allocate(recordSize * recordsPerBlock);
+
+            for(Map.Entry<UUID, List<PlayerHome>> pHomes : players)
+            {
+                for(PlayerHome pHome : pHomes.getValue())
+                {
+                    EntityLocation pHomeLocation = pHome.getLocation();
+                    records.putInt(stringIndices.get(pHome.getName()));
+                    records.putInt(stringIndices.get(pHomeLocation.getWorldId()));
+                    records.putDouble(pHomeLocation.getX());
+                    records.putDouble(pHomeLocation.getY());
+                    records.putDouble(pHomeLocation.getZ());
+                    records.putDouble(pHomeLocation.getPitch());
+                    records.putDouble(pHomeLocation.getYaw());
+                    recordsWritten++;
+
+                    if(!records.hasRemaining())
+                    {
+                        writeBlock(out, records.array(), records.position());
+                        records.clear();
+                    }
+                }
+            }
+
+            if(records.position() > 0)
+                writeBlock(out, records.array(), records.position());
+        }
+
+        return recordsWritten;
+    }
+
+    private static void indexString(String s, Map<String, Integer> stringIndices, List<String> strings)
+    {
+        if(stringIndices.putIfAbsent(s, strings.size()) == null)
+            strings.add(s);
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] payload, int length) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        out.writeInt(length);
+        out.writeInt((int)crc.getValue());
+        out.write(payload, 0, length);
+    }
+
+    public static int read(Path location, HomeConsumer homeConsumer) throws IOException
+    {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(location), 1 << 16)))
+        {
+            if(in.readInt() != magicNumber)
+                throw new IOException("Not a homes file: " + location);
+
+            int version = in.readInt();
+
+            if(version != formatVersion)
+                throw new IOException("Unsupported homes file version: " + version);
+
+            String[] strings = readStringTable(ByteBuffer.wrap(readBlock(in, "string table")));
+            ByteBuffer directory = ByteBuffer.wrap(readBlock(in, "player directory"));
+            int playerCount = directory.getInt();
+            ByteBuffer records = ByteBuffer.allocate(0);
+            boolean recordsAreValid = true;
+            int recordsRead = 0;
+
+            for(int i = 0; i < playerCount; i++)
+            {
+                UUID playerId = new UUID(directory.getLong(), directory.getLong());
+                int homeCount = directory.getInt();
+
+                for(int j = 0; j < homeCount; j++)
+                {
+                    if(!records.hasRemaining())
+                    {
+                        byte[] blockPayload = new byte[in.readInt()];
+                        int expectedCrc = in.readInt();
+                        in.readFully(blockPayload);
+                        recordsAreValid = getCrc(blockPayload) == expectedCrc;
+                        records = ByteBuffer.wrap(blockPayload);
+
+                        if(!recordsAreValid)
+                            System.err.println("Corrupt block of home records in homes file, skipping "
+                                               + (blockPayload.length / recordSize) + " homes.");
+                    }
+
+                    if(!recordsAreValid)
+                    {
+                        records.position(records.position() + recordSize);
+                        continue;
+                    }
+
+                    String homeName = Homes.internHomeName(strings[records.getInt()]);
+                    String worldId = Homes.internWorldId(strings[records.getInt()]);
+                    double x = records.getDouble();
+                    double y = records.getDouble();
+                    double z = records.getDouble();
+                    double pitch = records.getDouble();
+                    double yaw = records.getDouble();
+                    homeConsumer.accept(playerId, homeName, new EntityLocation(worldId, x, y, z, pitch, yaw));
+                    recordsRead++;
+                }
+            }
+
+            return recordsRead;
+        }
+    }
+
+    static String[] readStringTable(ByteBuffer stringTable) throws IOException
+    {
+        String[] strings = new String[stringTable.getInt()];
+        DataInputStream tableIn = new DataInputStream(new ByteBufferInputStream(stringTable));
+
+        for(int i = 0; i < strings.length; i++)
+            strings[i] = tableIn.readUTF();
+
+        return strings;
+    }
+
+    private static byte[] readBlock(DataInputStream in, String blockName) throws IOException
+    {
+        byte[] payload = new byte[in.readInt()];
+        int expectedCrc = in.readInt();
+        in.readFully(payload);
+
+        if(getCrc(payload) != expectedCrc)
+            throw new IOException("Corrupt " + blockName + " in homes file.");
+
+        return payload;
+    }
+
+    static int getCrc(byte[] bytes)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int)crc.getValue();
+    }
+
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        public ByteBufferInputStream(ByteBuffer buffer)
+        { this.buffer = buffer; }
+
+        private final ByteBuffer buffer;
+
+        @Override
+        public int read()
+        { return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1; }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if(!buffer.hasRemaining())
+                return -1;
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package scot.massie.mc.ninti.homes;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+/*
+ * The server config, nintihomes-server.toml. Forge loads it as the server's starting up, and its values are applied to
+ * Homes before homes are loaded. Settings that only take effect on load take effect on the next server start.
+ */
+final class HomesConfig
+{
+    static final ForgeConfigSpec spec;
+
+    private static final ForgeConfigSpec.EnumValue<Homes.SaveFormat> saveFormat;
+    private static final ForgeConfigSpec.BooleanValue lazyLoading;
+    private static final ForgeConfigSpec.BooleanValue parallelLoading;
+    private static final ForgeConfigSpec.BooleanValue verifyParallelLoading;
+    private static final ForgeConfigSpec.BooleanValue perPlayerStorage;
+    private static final ForgeConfigSpec.LongValue evictionIdleSeconds;
+    private static final ForgeConfigSpec.BooleanValue columnarStorage;
+    private static final ForgeConfigSpec.BooleanValue interningHomeNames;
+
+    static
+    {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+        builder.push("storage");
+
+        saveFormat = builder.comment("The format the homes file is written in when compacting: CSV or BINARY.")
+                            .defineEnum("saveFormat", Homes.SaveFormat.CSV);
+
+        lazyLoading = builder.comment("Where the homes file is binary, maps it into memory on load, and only reads",
+                                      "each player's homes the first time they're accessed.")
+                             .define("lazyLoading", false);
+
+        parallelLoading = builder.comment("Where the homes file is CSV, parses it in chunks in parallel on load.")
+                                 .define("parallelLoading", false);
+
+        verifyParallelLoading = builder.comment("Where the homes file is parsed in parallel, also parses it",
+                                                "sequentially and reports any differences.")
+                                       .define("verifyParallelLoading", false);
+
+        perPlayerStorage = builder.comment("Saves each player's homes to a file of their own, and only loads them when",
+                                           "they're needed. Homes are moved between the homes file and players' own",
+                                           "files on load where this has changed.")
+                                  .define("perPlayerStorage", false);
+
+        evictionIdleSeconds = builder.comment("Where each player's homes are saved to their own file, how long players",
+                                              "must be offline, with their homes unused, before their homes are",
+                                              "dropped from memory, in seconds. At least a minute, so homes aren't",
+                                              "evicted while they're being changed.")
+                                     .defineInRange("evictionIdleSeconds", 600L, 60L, Long.MAX_VALUE / 1000);
+
+        columnarStorage = builder.comment("Holds players' homes in memory as columns of primitives rather than as home",
+                                          "objects.")
+                                 .define("columnarStorage", false);
+
+        interningHomeNames = builder.comment("Has homes with the same name share one copy of it in memory, as world",
+                                             "IDs always do.")
+                                    .define("interningHomeNames", false);
+
+        builder.pop();
+        spec = builder.build();
+    }
+
+    private HomesConfig()
+    {}
+
+    static void apply()
+    {
+        Homes.setSaveFormat(saveFormat.get());
+        Homes.setLazyLoading(lazyLoading.get());
+        Homes.setParallelLoading(parallelLoading.get());
+        Homes.setVerifyParallelLoading(verifyParallelLoading.get());
+        Homes.setUsingPerPlayerStorage(perPlayerStorage.get());
+        Homes.setEvictionIdleSeconds(evictionIdleSeconds.get());
+        Homes.setUsingColumnarStorage(columnarStorage.get());
+        Homes.setInterningHomeNames(interningHomeNames.get());
+    }
+}
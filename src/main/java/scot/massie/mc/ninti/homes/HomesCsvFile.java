@@ -0,0 +1,359 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.lib.utils.StringUtils;
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+final class HomesCsvFile
+{
+    /*
+
+    CSV file, with a header row.
+
+    UUID, home name, world id, x, y, z, pitch, yaw
+
+     */
+
+    static final class ParsedHome
+    {
+        public ParsedHome(UUID playerId, String homeName, EntityLocation location)
+        {
+            this.playerId = playerId;
+            this.homeName = homeName;
+            this.location = location;
+        }
+
+        final UUID playerId;
+        final String homeName;
+        final EntityLocation location;
+
+        public boolean isSameAs(ParsedHome other)
+        {
+            return playerId.equals(other.playerId)
+                   && homeName.equals(other.homeName)
+                   && location.getWorldId().equals(other.location.getWorldId())
+                   && Double.compare(location.getX(), other.location.getX()) == 0
+                   && Double.compare(location.getY(), other.location.getY()) == 0
+                   && Double.compare(location.getZ(), other.location.getZ()) == 0
+                   && Double.compare(location.getPitch(), other.location.getPitch()) == 0
+                   && Double.compare(location.getYaw(), other.location.getYaw()) == 0;
+        }
+    }
+
+    static final class ParseResult
+    {
+        public ParseResult(List<ParsedHome> homes, List<String> errors)
+        {
+            this.homes = homes;
+            this.errors = errors;
+        }
+
+        final List<ParsedHome> homes;
+        final List<String> errors;
+    }
+
+    private static final int minimumChunkSize = 1 << 18;
+
+    private HomesCsvFile()
+    {}
+
+    static List<String> homeToRow(String playerId, PlayerHome pHome)
+    {
+        List<String> row = new ArrayList<>(8);
+        EntityLocation pHomeLocation = pHome.getLocation();
+        row.add(playerId);
+        row.add(pHome.getName());
+        row.add(pHomeLocation.getWorldId());
+        row.add(Double.toString(pHomeLocation.getX()));
+        row.add(Double.toString(pHomeLocation.getY()));
+        row.add(Double.toString(pHomeLocation.getZ()));
+        row.add(Double.toString(pHomeLocation.getPitch()));
+        row.add(Double.toString(pHomeLocation.getYaw()));
+        return row;
+    }
+
+    public static int write(Path location, Map<UUID, List<PlayerHome>> homes) throws IOException
+    {
+        int recordsWritten = 0;
+
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(location.toFile())))
+        {
+            // Header row
+            writer.write(StringUtils.toCSVRow(Arrays.asList("player id", "home name",
+                                                            "world id", "x", "y", "z", "pitch", "yaw"),
+                                              true));
+            writer.newLine();
+
+            for(Map.Entry<UUID, List<PlayerHome>> pHomes : homes.entrySet())
+            {
+                String playerId = pHomes.getKey().toString();
+
+                for(PlayerHome pHome : pHomes.getValue())
+                {
+                    writer.write(StringUtils.toCSVRow(homeToRow(playerId, pHome), true));
+                    writer.newLine();
+                    recordsWritten++;
+                }
+            }
+        }
+
+        return recordsWritten;
+    }
+
+    public static ParseResult read(Path location) throws IOException
+    {
+        List<ParsedHome> homes = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(location.toFile())))
+        {
+            @SuppressWarnings("UnusedAssignment") // Ignore first line, this should be the header.
+            String line = reader.readLine();
+
+            while((line = reader.readLine()) != null)
+            {
+                ParsedHome home = parseRecord(line, StringUtils.parseCSVRow(line), errors::add);
+
+                if(home != null)
+                    homes.add(home);
+            }
+        }
+
+        return new ParseResult(homes, errors);
+    }
+
+    /*
+     * Reads the file as per read(Path), but splits it into chunks on line boundaries and parses each on its own
+     * fork-join worker. Homes and errors are returned in the same order as they appear in the file.
+     */
+    public static ParseResult readInParallel(Path location) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(location);
+        int start = 0;
+
+        // Ignore first line, this should be the header.
+        while(start < bytes.length && bytes[start] != '\n' && bytes[start] != '\r')
+            start++;
+
+        if(start < bytes.length && bytes[start] == '\r')
+            start++;
+
+        if(start < bytes.length && bytes[start] == '\n')
+            start++;
+
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        int chunkSize = Math.max(minimumChunkSize, (bytes.length - start) / (parallelism * 4) + 1);
+        List<ChunkParseTask> tasks = new ArrayList<>();
+
+        while(start < bytes.length)
+        {
+            int end = Math.min(bytes.length, start + chunkSize);
+
+            // Chunks end just after a newline, so "\r\n" is never split across chunks.
+            while(end < bytes.length && bytes[end - 1] != '\n')
+                end++;
+
+            tasks.add(new ChunkParseTask(bytes, start, end));
+            start = end;
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+        List<ParsedHome> homes = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+
+        for(ChunkParseTask task : tasks)
+        {
+            ParseResult chunkResult = task.join();
+            homes.addAll(chunkResult.homes);
+            errors.addAll(chunkResult.errors);
+        }
+
+        return new ParseResult(homes, errors);
+    }
+
+    private static final class ChunkParseTask extends RecursiveTask<ParseResult>
+    {
+        private static final long serialVersionUID = 1L;
+
+        public ChunkParseTask(byte[] bytes, int start, int end)
+        {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+
+        @Override
+        protected ParseResult compute()
+        {
+            // FileReader, as used by read(Path), uses the default charset.
+            String chunk = new String(bytes, start, end - start, Charset.defaultCharset());
+            List<ParsedHome> homes = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+            int lineStart = 0;
+
+            // Lines are split the same way as BufferedReader.readLine().
+            while(lineStart < chunk.length())
+            {
+                int lineEnd = lineStart;
+
+                while(lineEnd < chunk.length() && chunk.charAt(lineEnd) != '\n' && chunk.charAt(lineEnd) != '\r')
+                    lineEnd++;
+
+                String line = chunk.substring(lineStart, lineEnd);
+                ParsedHome home = parseRecord(line, StringUtils.parseCSVRow(line), errors::add);
+
+                if(home != null)
+                    homes.add(home);
+
+                if(lineEnd < chunk.length() && chunk.charAt(lineEnd) == '\r')
+                    lineEnd++;
+
+                if(lineEnd < chunk.length() && chunk.charAt(lineEnd) == '\n')
+                    lineEnd++;
+
+                lineStart = lineEnd;
+            }
+
+            return new ParseResult(homes, errors);
+        }
+    }
+
+    // Prints any differences between the results of parsing the same file sequentially and in parallel.
+    static boolean compare(ParseResult sequential, ParseResult parallel)
+    {
+        boolean isSame = true;
+
+        if(sequential.homes.size() != parallel.homes.size())
+        {
+            System.err.println("Parallel homes file parsing read " + parallel.homes.size() + " homes, but sequential "
+                               + "parsing read " + sequential.homes.size() + ".");
+            isSame = false;
+        }
+
+        for(int i = 0; i < Math.min(sequential.homes.size(), parallel.homes.size()); i++)
+        {
+            if(!sequential.homes.get(i).isSameAs(parallel.homes.get(i)))
+            {
+                System.err.println("Parallel homes file parsing differs from sequential parsing at home #" + i + ".");
+                isSame = false;
+                break;
+            }
+        }
+
+        if(!sequential.errors.equals(parallel.errors))
+        {
+            System.err.println("Parallel homes file parsing reported different errors to sequential parsing.");
+            isSame = false;
+        }
+
+        return isSame;
+    }
+
+    // Returns null if the record couldn't be parsed, having passed the reason to errorReporter.
+    static ParsedHome parseRecord(String line, List<String> fields, Consumer<String> errorReporter)
+    {
+        if(fields.size() != 8)
+        {
+            errorReporter.accept("Malformed home record: " + line);
+
+            if(fields.size() < 8)
+                return null;
+        }
+
+        UUID playerId;
+        String homeName;
+        String worldId;
+        double x, y, z, pitch, yaw;
+
+        try
+        {
+            playerId = UUID.fromString(fields.get(0));
+        }
+        catch(IllegalArgumentException e)
+        {
+            errorReporter.accept("Malformed player ID, skipping: " + fields.get(0));
+            return null;
+        }
+
+        // TO DO: Include validation for these.
+        homeName = fields.get(1);
+        worldId = fields.get(2);
+
+        //region parse x, y, z, pitch, and yaw
+        try
+        {
+            x = Double.parseDouble(fields.get(3));
+        }
+        catch(NumberFormatException e)
+        {
+            errorReporter.accept("Invalid X value, must be a number, skipping: " + fields.get(3));
+            return null;
+        }
+
+        try
+        {
+            y = Double.parseDouble(fields.get(4));
+        }
+        catch(NumberFormatException e)
+        {
+            errorReporter.accept("Invalid Y value, must be a number, skipping: " + fields.get(4));
+            return null;
+        }
+
+        try
+        {
+            z = Double.parseDouble(fields.get(5));
+        }
+        catch(NumberFormatException e)
+        {
+            errorReporter.accept("Invalid Z value, must be a number, skipping: " + fields.get(5));
+            return null;
+        }
+
+        try
+        {
+            pitch = Double.parseDouble(fields.get(6));
+        }
+        catch(NumberFormatException e)
+        {
+            errorReporter.accept("Invalid pitch value, must be a number, skipping: " + fields.get(6));
+            return null;
+        }
+
+        try
+        {
+            yaw = Double.parseDouble(fields.get(7));
+        }
+        catch(NumberFormatException e)
+        {
+            errorReporter.accept("Invalid yaw value, must be a number, skipping: " + fields.get(7));
+            return null;
+        }
+        //endregion
+
+        return new ParsedHome(playerId,
+                              Homes.internHomeName(homeName),
+                              new EntityLocation(Homes.internWorldId(worldId), x, y, z, pitch, yaw));
+    }
+}
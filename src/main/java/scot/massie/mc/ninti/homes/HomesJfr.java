@@ -0,0 +1,102 @@
+package scot.massie.mc.ninti.homes;
+
+import java.util.UUID;
+
+/*
+ * Java Flight Recorder events for home teleports, saves, loads, and homes that couldn't be set. Where JFR isn't
+ * available, as on older Java 8 runtimes, or an event isn't being recorded, the begin methods return null, nothing's
+ * allocated, and the other methods do nothing given null.
+ *
+ * Everything that touches jdk.jfr is in HomesJfrEvents, which is only touched once JFR's been found to be available.
+ * Events are only held here and by callers as Objects, so neither this class nor its callers need jdk.jfr to be loaded
+ * or verified.
+ */
+final class HomesJfr
+{
+    private static final boolean available = isJfrAvailable();
+
+    private HomesJfr()
+    {}
+
+    private static boolean isJfrAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, HomesJfr.class.getClassLoader());
+            return true;
+        }
+        catch(ClassNotFoundException | LinkageError e)
+        { return false; }
+    }
+
+    static Object beginTeleport()
+    { return available ? HomesJfrEvents.beginTeleport() : null; }
+
+    static void endPermissionCheck(Object event)
+    {
+        if(event != null)
+            HomesJfrEvents.endPermissionCheck(event);
+    }
+
+    static void endCostEvaluation(Object event)
+    {
+        if(event != null)
+            HomesJfrEvents.endCostEvaluation(event);
+    }
+
+    static void endCharge(Object event)
+    {
+        if(event != null)
+            HomesJfrEvents.endCharge(event);
+    }
+
+    static void endTeleport(Object event)
+    {
+        if(event != null)
+            HomesJfrEvents.endTeleport(event);
+    }
+
+    static void commitTeleport(Object event, PlayerHome home, TpHomeOutcome outcome)
+    {
+        if(event != null)
+            HomesJfrEvents.commitTeleport(event, home, outcome);
+    }
+
+    static Object beginSave()
+    { return available ? HomesJfrEvents.beginSave() : null; }
+
+    static void commitSave(Object event,
+                           boolean compaction,
+                           boolean perPlayer,
+                           Homes.SaveFormat format,
+                           int recordsWritten,
+                           long bytesWritten)
+    {
+        if(event != null)
+            HomesJfrEvents.commitSave(event, compaction, perPlayer, format, recordsWritten, bytesWritten);
+    }
+
+    static Object beginLoad()
+    { return available ? HomesJfrEvents.beginLoad() : null; }
+
+    static void commitLoad(Object event,
+                           boolean lazy,
+                           int playersLoaded,
+                           int homesLoaded,
+                           int journalRecordsReplayed,
+                           long bytesRead)
+    {
+        if(event != null)
+            HomesJfrEvents.commitLoad(event, lazy, playersLoaded, homesLoaded, journalRecordsReplayed, bytesRead);
+    }
+
+    static Object beginSetHome()
+    { return available ? HomesJfrEvents.beginSetHome() : null; }
+
+    // Only commits the event where the home wasn't set.
+    static void commitSetHome(Object event, UUID playerId, String homeName, String worldId, SetHomeOutcome outcome)
+    {
+        if(event != null && !outcome.wasSet())
+            HomesJfrEvents.commitSetHome(event, playerId, homeName, worldId, outcome);
+    }
+}
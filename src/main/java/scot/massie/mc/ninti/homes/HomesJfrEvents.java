@@ -0,0 +1,283 @@
+package scot.massie.mc.ninti.homes;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.UUID;
+
+/*
+ * The JFR events HomesJfr records, and everything else that touches jdk.jfr. Only loaded once HomesJfr has found JFR
+ * to be available. Events are passed in as the Objects HomesJfr holds them as, and are never null.
+ */
+final class HomesJfrEvents
+{
+    @Name("scot.massie.mc.ninti.homes.HomeTeleport")
+    @Label("Home Teleport")
+    @Category("NintiHomes")
+    @Description("A player trying to teleport to one of their homes, with the time spent in each phase.")
+    static final class TeleportEvent extends Event
+    {
+        @Label("Player ID")
+        String playerId;
+
+        @Label("Home Name")
+        String homeName;
+
+        @Label("World ID")
+        String worldId;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Permission Check")
+        @Timespan(Timespan.NANOSECONDS)
+        long permissionCheckNanos;
+
+        @Label("Cost Evaluation")
+        @Timespan(Timespan.NANOSECONDS)
+        long costEvaluationNanos;
+
+        @Label("Charge")
+        @Timespan(Timespan.NANOSECONDS)
+        long chargeNanos;
+
+        @Label("Teleport")
+        @Timespan(Timespan.NANOSECONDS)
+        long teleportNanos;
+
+        transient long phaseStartedAt = System.nanoTime();
+
+        long endPhase()
+        {
+            long now = System.nanoTime();
+            long result = now - phaseStartedAt;
+            phaseStartedAt = now;
+            return result;
+        }
+    }
+
+    @Name("scot.massie.mc.ninti.homes.Save")
+    @Label("Homes Save")
+    @Category("NintiHomes")
+    static final class SaveEvent extends Event
+    {
+        @Label("Compaction")
+        boolean compaction;
+
+        @Label("Per Player")
+        boolean perPlayer;
+
+        @Label("Format")
+        String format;
+
+        @Label("Records Written")
+        int recordsWritten;
+
+        @Label("Bytes Written")
+        @DataAmount(DataAmount.BYTES)
+        long bytesWritten;
+    }
+
+    @Name("scot.massie.mc.ninti.homes.Load")
+    @Label("Homes Load")
+    @Category("NintiHomes")
+    static final class LoadEvent extends Event
+    {
+        @Label("Lazy")
+        boolean lazy;
+
+        @Label("Players Loaded")
+        int playersLoaded;
+
+        @Label("Homes Loaded")
+        int homesLoaded;
+
+        @Label("Journal Records Replayed")
+        int journalRecordsReplayed;
+
+        @Label("Bytes Read")
+        @DataAmount(DataAmount.BYTES)
+        long bytesRead;
+    }
+
+    @Name("scot.massie.mc.ninti.homes.SetHomeRejected")
+    @Label("Set Home Rejected")
+    @Category("NintiHomes")
+    @Description("A player's home that couldn't be set, and why.")
+    static final class SetHomeRejectedEvent extends Event
+    {
+        @Label("Player ID")
+        String playerId;
+
+        @Label("Home Name")
+        String homeName;
+
+        @Label("World ID")
+        String worldId;
+
+        @Label("Reason")
+        String reason;
+
+        @Label("Missing Permission")
+        String missingPermission;
+
+        @Label("Homes Allowed")
+        int homesAllowed;
+
+        @Label("Zone Name")
+        String zoneName;
+    }
+
+    private static final EventType teleportEventType = EventType.getEventType(TeleportEvent.class);
+    private static final EventType saveEventType = EventType.getEventType(SaveEvent.class);
+    private static final EventType loadEventType = EventType.getEventType(LoadEvent.class);
+    private static final EventType setHomeRejectedEventType = EventType.getEventType(SetHomeRejectedEvent.class);
+
+    private HomesJfrEvents()
+    {}
+
+    static Object beginTeleport()
+    {
+        if(!teleportEventType.isEnabled())
+            return null;
+
+        TeleportEvent event = new TeleportEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endPermissionCheck(Object event)
+    {
+        TeleportEvent teleportEvent = (TeleportEvent)event;
+        teleportEvent.permissionCheckNanos = teleportEvent.endPhase();
+    }
+
+    static void endCostEvaluation(Object event)
+    {
+        TeleportEvent teleportEvent = (TeleportEvent)event;
+        teleportEvent.costEvaluationNanos = teleportEvent.endPhase();
+    }
+
+    static void endCharge(Object event)
+    {
+        TeleportEvent teleportEvent = (TeleportEvent)event;
+        teleportEvent.chargeNanos = teleportEvent.endPhase();
+    }
+
+    static void endTeleport(Object event)
+    {
+        TeleportEvent teleportEvent = (TeleportEvent)event;
+        teleportEvent.teleportNanos = teleportEvent.endPhase();
+    }
+
+    static void commitTeleport(Object event, PlayerHome home, TpHomeOutcome outcome)
+    {
+        TeleportEvent teleportEvent = (TeleportEvent)event;
+        teleportEvent.end();
+
+        if(!teleportEvent.shouldCommit())
+            return;
+
+        teleportEvent.playerId = home.getPlayerId().toString();
+        teleportEvent.homeName = home.getName();
+        teleportEvent.worldId = home.getLocation().getWorldId();
+        teleportEvent.outcome = outcome.getKind().name();
+        teleportEvent.commit();
+    }
+
+    static Object beginSave()
+    {
+        if(!saveEventType.isEnabled())
+            return null;
+
+        SaveEvent event = new SaveEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitSave(Object event,
+                           boolean compaction,
+                           boolean perPlayer,
+                           Homes.SaveFormat format,
+                           int recordsWritten,
+                           long bytesWritten)
+    {
+        SaveEvent saveEvent = (SaveEvent)event;
+        saveEvent.end();
+
+        if(!saveEvent.shouldCommit())
+            return;
+
+        saveEvent.compaction = compaction;
+        saveEvent.perPlayer = perPlayer;
+        saveEvent.format = perPlayer ? Homes.SaveFormat.CSV.name() : format.name();
+        saveEvent.recordsWritten = recordsWritten;
+        saveEvent.bytesWritten = bytesWritten;
+        saveEvent.commit();
+    }
+
+    static Object beginLoad()
+    {
+        if(!loadEventType.isEnabled())
+            return null;
+
+        LoadEvent event = new LoadEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitLoad(Object event,
+                           boolean lazy,
+                           int playersLoaded,
+                           int homesLoaded,
+                           int journalRecordsReplayed,
+                           long bytesRead)
+    {
+        LoadEvent loadEvent = (LoadEvent)event;
+        loadEvent.end();
+
+        if(!loadEvent.shouldCommit())
+            return;
+
+        loadEvent.lazy = lazy;
+        loadEvent.playersLoaded = playersLoaded;
+        loadEvent.homesLoaded = homesLoaded;
+        loadEvent.journalRecordsReplayed = journalRecordsReplayed;
+        loadEvent.bytesRead = bytesRead;
+        loadEvent.commit();
+    }
+
+    static Object beginSetHome()
+    {
+        if(!setHomeRejectedEventType.isEnabled())
+            return null;
+
+        SetHomeRejectedEvent event = new SetHomeRejectedEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitSetHome(Object event, UUID playerId, String homeName, String worldId, SetHomeOutcome outcome)
+    {
+        SetHomeRejectedEvent rejectedEvent = (SetHomeRejectedEvent)event;
+        rejectedEvent.end();
+
+        if(!rejectedEvent.shouldCommit())
+            return;
+
+        rejectedEvent.playerId = playerId.toString();
+        rejectedEvent.homeName = homeName;
+        rejectedEvent.worldId = worldId;
+        rejectedEvent.reason = outcome.getKind().name();
+        rejectedEvent.missingPermission = outcome.getMissingPermission();
+        rejectedEvent.homesAllowed = outcome.getHomesAllowed();
+        rejectedEvent.zoneName = outcome.getZoneName();
+        rejectedEvent.commit();
+    }
+}
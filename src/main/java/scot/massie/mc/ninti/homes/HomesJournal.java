@@ -0,0 +1,321 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.lib.utils.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+final class HomesJournal
+{
+    /*
+
+    CSV file, one row per change made to the homes registry, in the order they were made.
+
+    sequence number, "set", player id, home name, world id, x, y, z, pitch, yaw
+    sequence number, "delete", player id, home name
+    sequence number, "clear", player id
+
+    When checkpointing, the journal is moved to the rotated location and a new journal is started. Once the registry has
+    been saved, the rotated journal is no longer needed and is deleted.
+
+     */
+
+    private static final String operationSet = "set";
+    private static final String operationDelete = "delete";
+    private static final String operationClear = "clear";
+
+    private final Path location;
+    private final Path rotatedLocation;
+    private BufferedWriter writer = null;
+    private long nextSequenceNumber = 0;
+    private long lastReplayedSequenceNumber = -1;
+    private int recordsSinceRotation = 0;
+
+    HomesJournal(Path location, Path rotatedLocation)
+    {
+        this.location = location;
+        this.rotatedLocation = rotatedLocation;
+    }
+
+    public synchronized boolean isOpen()
+    { return writer != null; }
+
+    public synchronized int getRecordsSinceRotation()
+    { return recordsSinceRotation; }
+
+    public synchronized void open() throws IOException
+    {
+        if(writer != null)
+            return;
+
+        recordsSinceRotation = Files.exists(location) ? countRecords(location) : 0;
+        writer = new BufferedWriter(new FileWriter(location.toFile(), true));
+    }
+
+    public synchronized void close()
+    {
+        if(writer == null)
+            return;
+
+        try
+        { writer.close(); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not close the homes journal.");
+        }
+
+        writer = null;
+    }
+
+    public void recordSet(UUID playerId, PlayerHome home)
+    {
+        List<String> homeRow = HomesCsvFile.homeToRow(playerId.toString(), home);
+        List<String> row = new ArrayList<>(10);
+        row.add(null);
+        row.add(operationSet);
+        row.addAll(homeRow);
+        write(row);
+    }
+
+    public void recordDelete(UUID playerId, String homeName)
+    { write(new ArrayList<>(Arrays.asList(null, operationDelete, playerId.toString(), homeName))); }
+
+    public void recordClear(UUID playerId)
+    { write(new ArrayList<>(Arrays.asList(null, operationClear, playerId.toString()))); }
+
+    private synchronized void write(List<String> row)
+    {
+        if(writer == null)
+            return;
+
+        row.set(0, Long.toString(nextSequenceNumber++));
+
+        try
+        {
+            writer.write(StringUtils.toCSVRow(row, true));
+            writer.newLine();
+            writer.flush();
+            recordsSinceRotation++;
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not write to the homes journal. This change will be lost if the server stops "
+                               + "before the next save: " + row);
+        }
+    }
+
+    public synchronized boolean hasRotated()
+    { return Files.exists(rotatedLocation); }
+
+    /*
+     * Starts a new journal, moving the current one to the rotated location. Does nothing if there's nothing in the
+     * current journal, or if a previously rotated journal hasn't been deleted yet.
+     */
+    public synchronized boolean rotate()
+    {
+        if(recordsSinceRotation == 0 || Files.exists(rotatedLocation))
+            return false;
+
+        boolean wasOpen = writer != null;
+        close();
+
+        try
+        { Files.move(location, rotatedLocation, StandardCopyOption.ATOMIC_MOVE); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not rotate the homes journal.");
+            reopenIf(wasOpen);
+            return false;
+        }
+
+        recordsSinceRotation = 0;
+        reopenIf(wasOpen);
+        return true;
+    }
+
+    private void reopenIf(boolean shouldReopen)
+    {
+        if(!shouldReopen)
+            return;
+
+        try
+        { open(); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not reopen the homes journal. Changes to homes won't be journalled.");
+        }
+    }
+
+    public synchronized void deleteRotated()
+    {
+        try
+        { Files.deleteIfExists(rotatedLocation); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not delete the rotated homes journal. It will be replayed again on next load.");
+        }
+    }
+
+    public synchronized void deleteAll()
+    {
+        if(writer != null)
+            throw new IllegalStateException("Can't delete the homes journal while it's open.");
+
+        deleteRotated();
+
+        try
+        { Files.deleteIfExists(location); }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not delete the homes journal. It will be replayed again on next load.");
+        }
+
+        recordsSinceRotation = 0;
+    }
+
+    /*
+     * Applies the rotated journal (if present, from an interrupted checkpoint) then the current journal to the homes
+     * registry. Must only be called while the journal is closed. Not synchronised, as replaying takes the locks of the
+     * homes lists being changed, which may be held by other threads waiting to write to the journal.
+     */
+    public int replay()
+    {
+        synchronized(this)
+        {
+            if(writer != null)
+                throw new IllegalStateException("Can't replay the homes journal while it's open.");
+        }
+
+        lastReplayedSequenceNumber = -1;
+        int recordsReplayed = replay(rotatedLocation) + replay(location);
+
+        synchronized(this)
+        { nextSequenceNumber = Math.max(nextSequenceNumber, lastReplayedSequenceNumber + 1); }
+
+        System.out.println("Homes journal replayed. (" + recordsReplayed + " records)");
+        return recordsReplayed;
+    }
+
+    private int replay(Path journalLocation)
+    {
+        if(!Files.exists(journalLocation))
+            return 0;
+
+        int recordsReplayed = 0;
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(journalLocation.toFile())))
+        {
+            String line;
+
+            while((line = reader.readLine()) != null)
+            {
+                List<String> fields = StringUtils.parseCSVRow(line);
+
+                if(fields.size() < 3)
+                {
+                    System.err.println("Malformed homes journal record, skipping: " + line);
+                    continue;
+                }
+
+                long sequenceNumber;
+
+                try
+                { sequenceNumber = Long.parseLong(fields.get(0)); }
+                catch(NumberFormatException e)
+                {
+                    System.err.println("Malformed homes journal sequence number, skipping: " + line);
+                    continue;
+                }
+
+                if(sequenceNumber <= lastReplayedSequenceNumber)
+                {
+                    System.err.println("Homes journal record out of sequence, skipping: " + line);
+                    continue;
+                }
+
+                if(replayRecord(line, fields))
+                {
+                    lastReplayedSequenceNumber = sequenceNumber;
+                    recordsReplayed++;
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.err.println("Could not read the homes journal at " + journalLocation + ", so homes may be as of "
+                               + "the last save.");
+        }
+
+        return recordsReplayed;
+    }
+
+    private static boolean replayRecord(String line, List<String> fields)
+    {
+        UUID playerId;
+
+        try
+        { playerId = UUID.fromString(fields.get(2)); }
+        catch(IllegalArgumentException e)
+        {
+            System.err.println("Malformed player ID, skipping: " + fields.get(2));
+            return false;
+        }
+
+        switch(fields.get(1))
+        {
+            case operationSet:
+                if(fields.size() != 10)
+                    break;
+
+                Homes.loadHomeRecord(line, fields.subList(2, 10));
+                return true;
+
+            case operationDelete:
+                if(fields.size() != 4)
+                    break;
+
+                Homes.getFor(playerId).deleteHome(fields.get(3));
+                return true;
+
+            case operationClear:
+                if(fields.size() != 3)
+                    break;
+
+                Homes.getFor(playerId).clear();
+                return true;
+        }
+
+        System.err.println("Malformed homes journal record, skipping: " + line);
+        return false;
+    }
+
+    private static int countRecords(Path journalLocation) throws IOException
+    {
+        int count = 0;
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(journalLocation.toFile())))
+        {
+            while(reader.readLine() != null)
+                count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,295 @@
+package scot.massie.mc.ninti.homes;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counts and timings of what the homes registry and commands do, exposed over JMX and by /homes stats. Recording
+ * doesn't lock or allocate, so it can be done on the server thread.
+ */
+public final class HomesMetrics
+{
+    public interface TimerMXBean
+    {
+        long getCount();
+        double getTotalMillis();
+        double getMeanMillis();
+        double getMaxMillis();
+
+        // Percentiles are the upper bounds of the histogram buckets they fall in, so may be up to double the truth.
+        double get50thPercentileMillis();
+        double get95thPercentileMillis();
+        double get99thPercentileMillis();
+
+        void reset();
+    }
+
+    public interface RegistryMXBean
+    {
+        int getPlayersWithHomes();
+        int getPlayersLoaded();
+        int getHomesLoaded();
+        long getBytesSaved();
+        long getBytesLoaded();
+        long getLastSaveBytes();
+        long getLastLoadBytes();
+    }
+
+    public static final class Timer implements TimerMXBean
+    {
+        // Bucket i counts durations of under 2^i microseconds, bar the last, which counts everything longer.
+        private static final int bucketCount = 32;
+
+        private Timer(String name)
+        { this.name = name; }
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+
+        public String getName()
+        { return name; }
+
+        public void record(long nanos)
+        {
+            if(nanos < 0)
+                nanos = 0;
+
+            count.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos / 1000), bucketCount - 1));
+
+            for(long max = maxNanos.get(); nanos > max; max = maxNanos.get())
+                if(maxNanos.compareAndSet(max, nanos))
+                    break;
+        }
+
+        // Takes a start time from System.nanoTime().
+        public void recordSince(long startedAtNanos)
+        { record(System.nanoTime() - startedAtNanos); }
+
+        @Override
+        public long getCount()
+        { return count.sum(); }
+
+        @Override
+        public double getTotalMillis()
+        { return totalNanos.sum() / 1_000_000.0; }
+
+        @Override
+        public double getMeanMillis()
+        {
+            long count = getCount();
+            return count == 0 ? 0 : getTotalMillis() / count;
+        }
+
+        @Override
+        public double getMaxMillis()
+        { return maxNanos.get() / 1_000_000.0; }
+
+        private double getPercentileMillis(double percentile)
+        {
+            long[] counts = new long[bucketCount];
+            long total = 0;
+
+            for(int i = 0; i < bucketCount; i++)
+                total += (counts[i] = buckets.get(i));
+
+            if(total == 0)
+                return 0;
+
+            long target = (long)Math.ceil(total * percentile);
+            long soFar = 0;
+
+            for(int i = 0; i < bucketCount - 1; i++)
+                if((soFar += counts[i]) >= target)
+                    return Math.min((1L << i) / 1000.0, getMaxMillis());
+
+            return getMaxMillis();
+        }
+
+        @Override
+        public double get50thPercentileMillis()
+        { return getPercentileMillis(0.5); }
+
+        @Override
+        public double get95thPercentileMillis()
+        { return getPercentileMillis(0.95); }
+
+        @Override
+        public double get99thPercentileMillis()
+        { return getPercentileMillis(0.99); }
+
+        @Override
+        public void reset()
+        {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+
+            for(int i = 0; i < bucketCount; i++)
+                buckets.set(i, 0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT,
+                                 "%s: %d calls, mean %.3fms, p50 %.3fms, p95 %.3fms, p99 %.3fms, max %.3fms",
+                                 name,
+                                 getCount(),
+                                 getMeanMillis(),
+                                 get50thPercentileMillis(),
+                                 get95thPercentileMillis(),
+                                 get99thPercentileMillis(),
+                                 getMaxMillis());
+        }
+    }
+
+    private static final class Registry implements RegistryMXBean
+    {
+        @Override
+        public int getPlayersWithHomes()
+        { return Homes.getPlayersWithHomes().size(); }
+
+        @Override
+        public int getPlayersLoaded()
+        { return Homes.countLoadedPlayers(); }
+
+        @Override
+        public int getHomesLoaded()
+        { return Homes.countLoadedHomes(); }
+
+        @Override
+        public long getBytesSaved()
+        { return bytesSaved.sum(); }
+
+        @Override
+        public long getBytesLoaded()
+        { return bytesLoaded.sum(); }
+
+        @Override
+        public long getLastSaveBytes()
+        { return lastSaveBytes; }
+
+        @Override
+        public long getLastLoadBytes()
+        { return lastLoadBytes; }
+    }
+
+    private static final String objectNamePrefix = "scot.massie.mc.ninti.homes:type=";
+    private static final List<Timer> timers = new ArrayList<>();
+    private static final List<ObjectName> registeredNames = new ArrayList<>();
+    private static final RegistryMXBean registry = new Registry();
+
+    public static final Timer homeCommand = timer("home");
+    public static final Timer sethomeCommand = timer("sethome");
+    public static final Timer delhomeCommand = timer("delhome");
+    public static final Timer tpCosts = timer("tpcosts");
+    public static final Timer setHomeCapChecks = timer("sethomecapchecks");
+    public static final Timer save = timer("save");
+    public static final Timer load = timer("load");
+    public static final Timer registryLockWait = timer("registrylockwait");
+
+    private static final LongAdder bytesSaved = new LongAdder();
+    private static final LongAdder bytesLoaded = new LongAdder();
+    private static volatile long lastSaveBytes = 0;
+    private static volatile long lastLoadBytes = 0;
+
+    private HomesMetrics()
+    {}
+
+    private static Timer timer(String name)
+    {
+        Timer result = new Timer(name);
+        timers.add(result);
+        return result;
+    }
+
+    public static List<Timer> getTimers()
+    { return Collections.unmodifiableList(timers); }
+
+    public static RegistryMXBean getRegistry()
+    { return registry; }
+
+    static void recordBytesSaved(long bytes)
+    {
+        bytesSaved.add(bytes);
+        lastSaveBytes = bytes;
+    }
+
+    static void recordBytesLoaded(long bytes)
+    {
+        bytesLoaded.add(bytes);
+        lastLoadBytes = bytes;
+    }
+
+    public static void resetTimers()
+    {
+        for(Timer timer : timers)
+            timer.reset();
+    }
+
+    // Registers the timers and the registry's figures with the platform MBean server, under objectNamePrefix.
+    public static void registerMBeans()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        synchronized(registeredNames)
+        {
+            if(!registeredNames.isEmpty())
+                return;
+
+            try
+            {
+                ObjectName registryName = new ObjectName(objectNamePrefix + "Registry");
+                server.registerMBean(registry, registryName);
+                registeredNames.add(registryName);
+
+                for(Timer timer : timers)
+                {
+                    ObjectName timerName = new ObjectName(objectNamePrefix + "Timer,name=" + timer.getName());
+                    server.registerMBean(timer, timerName);
+                    registeredNames.add(timerName);
+                }
+            }
+            catch(JMException e)
+            {
+                e.printStackTrace();
+                System.err.println("Could not register homes metrics with JMX.");
+            }
+        }
+    }
+
+    public static void unregisterMBeans()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        synchronized(registeredNames)
+        {
+            for(ObjectName name : registeredNames)
+            {
+                try
+                { server.unregisterMBean(name); }
+                catch(JMException e)
+                {
+                    e.printStackTrace();
+                    System.err.println("Could not unregister homes metrics from JMX: " + name);
+                }
+            }
+
+            registeredNames.clear();
+        }
+    }
+}
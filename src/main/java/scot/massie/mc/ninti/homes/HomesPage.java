@@ -0,0 +1,39 @@
+package scot.massie.mc.ninti.homes;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * One page of homes, in the order pages of homes are listed in: by player's username, ignoring case, then by home name,
+ * ignoring case. Players with no known username are listed last.
+ */
+public final class HomesPage
+{
+    HomesPage(List<PlayerHome> homes, int pageNumber, int pageSize, int totalHomes)
+    {
+        this.homes = Collections.unmodifiableList(homes);
+        this.pageNumber = pageNumber;
+        this.pageCount = (totalHomes + pageSize - 1) / pageSize;
+        this.totalHomes = totalHomes;
+    }
+
+    private final List<PlayerHome> homes;
+    private final int pageNumber; // Starting at 1.
+    private final int pageCount;
+    private final int totalHomes;
+
+    public List<PlayerHome> getHomes()
+    { return homes; }
+
+    public int getPageNumber()
+    { return pageNumber; }
+
+    public int getPageCount()
+    { return pageCount; }
+
+    public int getTotalHomes()
+    { return totalHomes; }
+
+    public boolean isEmpty()
+    { return homes.isEmpty(); }
+}
@@ -0,0 +1,242 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * All homes, in a grid of square cells over x and z, per world. Only x and z are considered - a home is within a radius
+ * of a point where it's within that radius horizontally, at any height.
+ *
+ * Homes are kept as rows of primitives in their cells rather than as PlayerHome objects, as with
+ * ColumnarPlayerHomesStore, so the index doesn't hold onto an object per home. PlayerHome objects are created for the
+ * homes found by queries.
+ */
+final class HomesSpatialIndex
+{
+    private static final class Cell
+    {
+        public Cell(String worldId, long key)
+        {
+            this.worldId = worldId;
+            this.key = key;
+        }
+
+        private static final int initialCapacity = 2;
+
+        final String worldId;
+        final long key;
+        int size = 0;
+        UUID[] playerIds = new UUID[initialCapacity];
+        String[] homeNames = new String[initialCapacity];
+        double[] xs = new double[initialCapacity];
+        double[] ys = new double[initialCapacity];
+        double[] zs = new double[initialCapacity];
+        double[] pitches = new double[initialCapacity];
+        double[] yaws = new double[initialCapacity];
+
+        void add(PlayerHome home)
+        {
+            if(size == playerIds.length)
+            {
+                int capacity = size * 2;
+                playerIds = Arrays.copyOf(playerIds, capacity);
+                homeNames = Arrays.copyOf(homeNames, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                zs = Arrays.copyOf(zs, capacity);
+                pitches = Arrays.copyOf(pitches, capacity);
+                yaws = Arrays.copyOf(yaws, capacity);
+            }
+
+            EntityLocation location = home.getLocation();
+            playerIds[size] = home.getPlayerId();
+            homeNames[size] = home.getName();
+            xs[size] = location.getX();
+            ys[size] = location.getY();
+            zs[size] = location.getZ();
+            pitches[size] = location.getPitch();
+            yaws[size] = location.getYaw();
+            size++;
+        }
+
+        // Moves the last row into the removed one's place.
+        void remove(UUID playerId, String homeName)
+        {
+            for(int row = 0; row < size; row++)
+            {
+                if(!playerIds[row].equals(playerId) || !homeNames[row].equals(homeName))
+                    continue;
+
+                size--;
+                playerIds[row] = playerIds[size];
+                homeNames[row] = homeNames[size];
+                xs[row] = xs[size];
+                ys[row] = ys[size];
+                zs[row] = zs[size];
+                pitches[row] = pitches[size];
+                yaws[row] = yaws[size];
+                playerIds[size] = null;
+                homeNames[size] = null;
+                return;
+            }
+        }
+
+        PlayerHome getHome(int row)
+        {
+            EntityLocation location = new EntityLocation(worldId, xs[row], ys[row], zs[row], pitches[row], yaws[row]);
+            return new PlayerHome(playerIds[row], homeNames[row], location);
+        }
+    }
+
+    private static final int cellSize = 64;
+
+    // Cells by world ID, and then by cell key. (See getCellKey)
+    private final Map<String, Map<Long, Cell>> cellsByWorld = new HashMap<>();
+
+    // The cells homes are in, by player and then by home name, so they can be found to be removed.
+    private final Map<UUID, Map<String, Cell>> cellsByHome = new HashMap<>();
+
+    private static int getCellCoord(double coord)
+    { return (int)Math.floor(coord / cellSize); }
+
+    private static long getCellKey(int cellX, int cellZ)
+    { return (((long)cellX) << 32) | (cellZ & 0xFFFFFFFFL); }
+
+    private static long getCellKey(EntityLocation location)
+    { return getCellKey(getCellCoord(location.getX()), getCellCoord(location.getZ())); }
+
+    public synchronized void add(PlayerHome home)
+    {
+        Map<String, Cell> playerCells = cellsByHome.computeIfAbsent(home.getPlayerId(), id -> new HashMap<>());
+        Cell replacedCell = playerCells.get(home.getName());
+
+        // Removed first, as where it's the only home in the cell it's moving to, that cell's dropped.
+        if(replacedCell != null)
+            removeFromCell(replacedCell, home.getPlayerId(), home.getName());
+
+        EntityLocation location = home.getLocation();
+        long cellKey = getCellKey(location);
+
+        Cell cell = cellsByWorld.computeIfAbsent(location.getWorldId(), w -> new HashMap<>())
+                                .computeIfAbsent(cellKey, k -> new Cell(location.getWorldId(), cellKey));
+
+        playerCells.put(home.getName(), cell);
+        cell.add(home);
+    }
+
+    public synchronized void remove(UUID playerId, String homeName)
+    {
+        Map<String, Cell> playerCells = cellsByHome.get(playerId);
+
+        if(playerCells == null)
+            return;
+
+        Cell cell = playerCells.remove(homeName);
+
+        if(cell == null)
+            return;
+
+        if(playerCells.isEmpty())
+            cellsByHome.remove(playerId);
+
+        removeFromCell(cell, playerId, homeName);
+    }
+
+    public synchronized void removeAll(UUID playerId)
+    {
+        Map<String, Cell> playerCells = cellsByHome.remove(playerId);
+
+        if(playerCells != null)
+            for(Map.Entry<String, Cell> entry : playerCells.entrySet())
+                removeFromCell(entry.getValue(), playerId, entry.getKey());
+    }
+
+    private void removeFromCell(Cell cell, UUID playerId, String homeName)
+    {
+        cell.remove(playerId, homeName);
+
+        if(cell.size != 0)
+            return;
+
+        Map<Long, Cell> cells = cellsByWorld.get(cell.worldId);
+        cells.remove(cell.key);
+
+        if(cells.isEmpty())
+            cellsByWorld.remove(cell.worldId);
+    }
+
+    // Sorted by distance from the given point, nearest first.
+    public List<PlayerHome> getWithinRadius(String worldId, double x, double z, double radius)
+    {
+        List<PlayerHome> result = getWithinBox(worldId, x - radius, z - radius, x + radius, z + radius);
+        double radiusSquared = radius * radius;
+
+        result.removeIf(home -> getHorizontalDistanceSquared(home.getLocation(), x, z) > radiusSquared);
+        result.sort(Comparator.comparingDouble(home -> getHorizontalDistanceSquared(home.getLocation(), x, z)));
+        return result;
+    }
+
+    public synchronized List<PlayerHome> getWithinBox(String worldId, double x1, double z1, double x2, double z2)
+    {
+        Map<Long, Cell> cells = cellsByWorld.get(worldId);
+
+        if(cells == null)
+            return new ArrayList<>();
+
+        double minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        double minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+        int minCellX = getCellCoord(minX), maxCellX = getCellCoord(maxX);
+        int minCellZ = getCellCoord(minZ), maxCellZ = getCellCoord(maxZ);
+        List<PlayerHome> result = new ArrayList<>();
+
+        // Where the box covers more cells than there are, it's quicker to go through the cells there are.
+        if(((long)maxCellX - minCellX + 1) * ((long)maxCellZ - minCellZ + 1) > cells.size())
+        {
+            for(Cell cell : cells.values())
+                addWithinBox(cell, minX, minZ, maxX, maxZ, result);
+
+            return result;
+        }
+
+        for(int cellX = minCellX; cellX <= maxCellX; cellX++)
+        {
+            for(int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++)
+            {
+                Cell cell = cells.get(getCellKey(cellX, cellZ));
+
+                if(cell != null)
+                    addWithinBox(cell, minX, minZ, maxX, maxZ, result);
+            }
+        }
+
+        return result;
+    }
+
+    private static void addWithinBox(Cell cell,
+                                     double minX, double minZ, double maxX, double maxZ,
+                                     List<PlayerHome> result)
+    {
+        for(int row = 0; row < cell.size; row++)
+        {
+            double x = cell.xs[row];
+            double z = cell.zs[row];
+
+            if(x >= minX && x <= maxX && z >= minZ && z <= maxZ)
+                result.add(cell.getHome(row));
+        }
+    }
+
+    static double getHorizontalDistanceSquared(EntityLocation location, double x, double z)
+    {
+        double dx = location.getX() - x;
+        double dz = location.getZ() - z;
+        return dx * dx + dz * dz;
+    }
+}
@@ -0,0 +1,123 @@
+package scot.massie.mc.ninti.homes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Keeps each home as the PlayerHome object it was put in as.
+final class MapPlayerHomesStore implements PlayerHomesStore
+{
+    private final Map<String, PlayerHome> homes = new HashMap<>();
+    private final TreeSet<String> sortedHomeNames = new TreeSet<>(homeNameOrder);
+    private final Map<String, List<PlayerHome>> homesByWorld = new HashMap<>();
+
+    @Override
+    public int size()
+    { return homes.size(); }
+
+    @Override
+    public boolean isEmpty()
+    { return homes.isEmpty(); }
+
+    @Override
+    public PlayerHome get(String homeName)
+    { return homes.get(homeName); }
+
+    @Override
+    public PlayerHome put(PlayerHome home)
+    {
+        PlayerHome replaced = homes.put(home.getName(), home);
+
+        if(replaced != null)
+            removeFromWorld(replaced);
+        else
+            sortedHomeNames.add(home.getName());
+
+        homesByWorld.computeIfAbsent(home.getLocation().getWorldId(), w -> new ArrayList<>()).add(home);
+        return replaced;
+    }
+
+    @Override
+    public PlayerHome remove(String homeName)
+    {
+        PlayerHome removed = homes.remove(homeName);
+
+        if(removed != null)
+        {
+            sortedHomeNames.remove(homeName);
+            removeFromWorld(removed);
+        }
+
+        return removed;
+    }
+
+    private void removeFromWorld(PlayerHome home)
+    {
+        List<PlayerHome> homesInWorld = homesByWorld.get(home.getLocation().getWorldId());
+        homesInWorld.remove(home);
+
+        if(homesInWorld.isEmpty())
+            homesByWorld.remove(home.getLocation().getWorldId());
+    }
+
+    @Override
+    public void clear()
+    {
+        homes.clear();
+        sortedHomeNames.clear();
+        homesByWorld.clear();
+    }
+
+    @Override
+    public List<PlayerHome> getAll()
+    {
+        List<PlayerHome> result = new ArrayList<>(homes.size());
+
+        for(String homeName : sortedHomeNames)
+            result.add(homes.get(homeName));
+
+        return result;
+    }
+
+    @Override
+    public List<String> getNames()
+    { return new ArrayList<>(sortedHomeNames); }
+
+    @Override
+    public List<String> getNamesStartingWith(String prefix)
+    {
+        List<String> result = new ArrayList<>();
+
+        // Upper case sorts before lower case, so this is the first name that may start with the prefix.
+        for(String homeName : sortedHomeNames.tailSet(prefix.toUpperCase(Locale.ROOT), true))
+        {
+            if(!homeName.regionMatches(true, 0, prefix, 0, prefix.length()))
+                break;
+
+            result.add(homeName);
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<PlayerHome> getInWorld(String worldId)
+    {
+        List<PlayerHome> homesInWorld = homesByWorld.get(worldId);
+        return homesInWorld == null ? new ArrayList<>() : new ArrayList<>(homesInWorld);
+    }
+
+    @Override
+    public int countInWorld(String worldId)
+    {
+        List<PlayerHome> homesInWorld = homesByWorld.get(worldId);
+        return homesInWorld == null ? 0 : homesInWorld.size();
+    }
+
+    @Override
+    public List<String> getWorldIds()
+    { return new ArrayList<>(homesByWorld.keySet()); }
+}
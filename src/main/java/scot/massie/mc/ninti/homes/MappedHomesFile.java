@@ -0,0 +1,272 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static scot.massie.mc.ninti.homes.HomesBinaryFile.*;
+
+/*
+ * A binary homes file (see HomesBinaryFile) mapped into memory, where only the player directory is read up-front. The
+ * homes of each player are read from the mapped file the first time they're taken, after which the player's homes
+ * list in the registry is the source of truth for that player.
+ */
+final class MappedHomesFile
+{
+    private final Path location;
+    private final MappedByteBuffer buffer;
+    private final String[] strings;
+    private final long[] playerIdsMostSignificantBits;
+    private final long[] playerIdsLeastSignificantBits;
+    private final int[] firstRecordIndices;
+    private final int[] homeCounts;
+    private final int recordsStart;
+    private final BitSet taken;
+    private final BitSet verifiedBlocks = new BitSet();
+    private final BitSet corruptBlocks = new BitSet();
+
+    private MappedHomesFile(Path location, MappedByteBuffer buffer) throws IOException
+    {
+        this.location = location;
+        this.buffer = buffer;
+
+        if(buffer.getInt(0) != magicNumber)
+            throw new IOException("Not a homes file: " + location);
+
+        int version = buffer.getInt(4);
+
+        if(version != formatVersion)
+            throw new IOException("Unsupported homes file version: " + version);
+
+        int position = 8;
+        byte[] stringTable = readBlock(position, "string table");
+        strings = readStringTable(ByteBuffer.wrap(stringTable));
+        position += blockHeaderSize + stringTable.length;
+
+        byte[] directoryBytes = readBlock(position, "player directory");
+        ByteBuffer directory = ByteBuffer.wrap(directoryBytes);
+        position += blockHeaderSize + directoryBytes.length;
+
+        int playerCount = directory.getInt();
+        playerIdsMostSignificantBits = new long[playerCount];
+        playerIdsLeastSignificantBits = new long[playerCount];
+        firstRecordIndices = new int[playerCount];
+        homeCounts = new int[playerCount];
+        int recordCount = 0;
+
+        for(int i = 0; i < playerCount; i++)
+        {
+            playerIdsMostSignificantBits[i] = directory.getLong();
+            playerIdsLeastSignificantBits[i] = directory.getLong();
+            homeCounts[i] = directory.getInt();
+            firstRecordIndices[i] = recordCount;
+            recordCount += homeCounts[i];
+        }
+
+        recordsStart = position;
+        taken = new BitSet(playerCount);
+    }
+
+    public static MappedHomesFile open(Path location) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(location, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Homes file is too large to map into memory: " + location);
+
+            // The mapping remains valid after the channel is closed.
+            return new MappedHomesFile(location, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    public Path getLocation()
+    { return location; }
+
+    private byte[] readBlock(int position, String blockName) throws IOException
+    {
+        byte[] payload = readBytes(position + blockHeaderSize, buffer.getInt(position));
+
+        if(getCrc(payload) != buffer.getInt(position + 4))
+            throw new IOException("Corrupt " + blockName + " in homes file.");
+
+        return payload;
+    }
+
+    private byte[] readBytes(int position, int length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private int indexOf(UUID playerId)
+    {
+        long msb = playerId.getMostSignificantBits();
+        long lsb = playerId.getLeastSignificantBits();
+        int low = 0;
+        int high = homeCounts.length - 1;
+
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int comparison = Long.compare(playerIdsMostSignificantBits[mid], msb);
+
+            if(comparison == 0)
+                comparison = Long.compare(playerIdsLeastSignificantBits[mid], lsb);
+
+            if(comparison < 0)
+                low = mid + 1;
+            else if(comparison > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    private UUID getPlayerId(int playerIndex)
+    { return new UUID(playerIdsMostSignificantBits[playerIndex], playerIdsLeastSignificantBits[playerIndex]); }
+
+    public synchronized boolean hasUntaken(UUID playerId)
+    {
+        int index = indexOf(playerId);
+        return index >= 0 && !taken.get(index);
+    }
+
+    // Returns null if the file has no homes for the given player, or they've already been taken.
+    public synchronized List<PlayerHome> take(UUID playerId)
+    {
+        int index = indexOf(playerId);
+
+        if(index < 0 || taken.get(index))
+            return null;
+
+        taken.set(index);
+        return readHomes(index);
+    }
+
+    // Counts the player's homes by world ID, reading only their records' world IDs. Returns null if the file has no
+    // homes for the given player, or they've already been taken.
+    public synchronized Map<String, Integer> countUntakenHomesByWorld(UUID playerId)
+    {
+        int index = indexOf(playerId);
+
+        if(index < 0 || taken.get(index))
+            return null;
+
+        Map<String, Integer> result = new HashMap<>();
+        int firstRecordIndex = firstRecordIndices[index];
+
+        for(int recordIndex = firstRecordIndex; recordIndex < firstRecordIndex + homeCounts[index]; recordIndex++)
+            if(verifyBlock(recordIndex / recordsPerBlock))
+                result.merge(Homes.internWorldId(strings[buffer.getInt(getRecordPosition(recordIndex) + 4)]),
+                             1,
+                             Integer::sum);
+
+        return result;
+    }
+
+    public synchronized List<UUID> getUntakenPlayerIds()
+    {
+        List<UUID> result = new ArrayList<>(homeCounts.length - taken.cardinality());
+
+        for(int i = taken.nextClearBit(0); i < homeCounts.length; i = taken.nextClearBit(i + 1))
+            result.add(getPlayerId(i));
+
+        return result;
+    }
+
+    public synchronized BitSet getUntakenPlayerIndices()
+    {
+        BitSet result = new BitSet(homeCounts.length);
+        result.set(0, homeCounts.length);
+        result.andNot(taken);
+        return result;
+    }
+
+    public Map<UUID, List<PlayerHome>> readHomes(BitSet playerIndices)
+    {
+        Map<UUID, List<PlayerHome>> result = new LinkedHashMap<>();
+
+        for(int i = playerIndices.nextSetBit(0); i >= 0; i = playerIndices.nextSetBit(i + 1))
+            result.put(getPlayerId(i), readHomes(i));
+
+        return result;
+    }
+
+    private List<PlayerHome> readHomes(int playerIndex)
+    {
+        UUID playerId = getPlayerId(playerIndex);
+        int firstRecordIndex = firstRecordIndices[playerIndex];
+        int homeCount = homeCounts[playerIndex];
+        List<PlayerHome> result = new ArrayList<>(homeCount);
+
+        for(int recordIndex = firstRecordIndex; recordIndex < firstRecordIndex + homeCount; recordIndex++)
+        {
+            if(!verifyBlock(recordIndex / recordsPerBlock))
+                continue;
+
+            int position = getRecordPosition(recordIndex);
+
+            String homeName = Homes.internHomeName(strings[buffer.getInt(position)]);
+            String worldId = Homes.internWorldId(strings[buffer.getInt(position + 4)]);
+            double x = buffer.getDouble(position + 8);
+            double y = buffer.getDouble(position + 16);
+            double z = buffer.getDouble(position + 24);
+            double pitch = buffer.getDouble(position + 32);
+            double yaw = buffer.getDouble(position + 40);
+            result.add(new PlayerHome(playerId, homeName, new EntityLocation(worldId, x, y, z, pitch, yaw)));
+        }
+
+        return result.isEmpty() ? Collections.emptyList() : result;
+    }
+
+    private int getRecordPosition(int recordIndex)
+    {
+        return recordsStart
+               + (recordIndex / recordsPerBlock) * (blockHeaderSize + recordsPerBlock * recordSize)
+               + blockHeaderSize
+               + (recordIndex % recordsPerBlock) * recordSize;
+    }
+
+    private boolean verifyBlock(int blockIndex)
+    {
+        synchronized(verifiedBlocks)
+        {
+            if(verifiedBlocks.get(blockIndex))
+                return !corruptBlocks.get(blockIndex);
+
+            int position = recordsStart + blockIndex * (blockHeaderSize + recordsPerBlock * recordSize);
+            byte[] payload = readBytes(position + blockHeaderSize, buffer.getInt(position));
+            boolean isValid = getCrc(payload) == buffer.getInt(position + 4);
+            verifiedBlocks.set(blockIndex);
+
+            if(!isValid)
+            {
+                corruptBlocks.set(blockIndex);
+                System.err.println("Corrupt block of home records in homes file, skipping "
+                                   + (payload.length / recordSize) + " homes.");
+            }
+
+            return isValid;
+        }
+    }
+}
@@ -2,10 +2,15 @@ package scot.massie.mc.ninti.homes;
 
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.event.server.FMLServerStartingEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 
 // The value here should match an entry in the META-INF/mods.toml file
@@ -57,6 +62,8 @@ public class NintiHomes
         FMLJavaModLoadingContext.get().getModEventBus().addListener(this::setup);
         // Register the enqueueIMC method for modloading
 
+        ModLoadingContext.get().registerConfig(ModConfig.Type.SERVER, HomesConfig.spec);
+
         // Register ourselves for server and other game events we are interested in
         //noinspection ThisEscapedInObjectConstruction
         MinecraftForge.EVENT_BUS.register(this);
@@ -71,7 +78,36 @@ public class NintiHomes
     @SubscribeEvent
     public void onServerStarting(@SuppressWarnings("unused") FMLServerStartingEvent event)
     {
-        // do something when the server starts
+        HomesConfig.apply();
+        Homes.load();
+        HomesMetrics.registerMBeans();
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(@SuppressWarnings("unused") FMLServerStoppingEvent event)
+    {
+        HomeTeleports.cancelAll();
+        Homes.shutdown();
+        HomesMetrics.unregisterMBeans();
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            HomeTeleports.tick();
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event)
+    {
+        Homes.onPlayerLoggedIn(event.getPlayer().getUniqueID());
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        Homes.onPlayerLoggedOut(event.getPlayer().getUniqueID());
     }
 
     @SubscribeEvent
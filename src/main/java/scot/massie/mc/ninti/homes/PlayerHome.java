@@ -1,29 +1,20 @@
 package scot.massie.mc.ninti.homes;
 
-import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraftforge.common.UsernameCache;
-import scot.massie.lib.collections.maps.DoubleMap;
-import scot.massie.lib.collections.maps.MapUtils;
 import scot.massie.lib.maths.Equation;
 import scot.massie.lib.permissions.PermissionStatus;
-import scot.massie.mc.ninti.core.Permissions;
 import scot.massie.mc.ninti.core.PluginUtils;
 import scot.massie.mc.ninti.core.currencies.Currencies;
 import scot.massie.mc.ninti.core.exceptions.NoSuchWorldException;
 import scot.massie.mc.ninti.core.exceptions.PlayerMissingPermissionException;
 import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
-import scot.massie.mc.ninti.core.zones.Zone;
-import scot.massie.mc.ninti.core.zones.Zones;
 import scot.massie.mc.ninti.homes.Exceptions.CouldNotAffordToTpHomeException;
 
-import static scot.massie.lib.utils.StringUtils.*;
-
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public final class PlayerHome
 {
@@ -51,7 +42,7 @@ public final class PlayerHome
     { return location; }
 
     public ServerPlayerEntity getPlayer()
-    { return PluginUtils.getServer().getPlayerList().getPlayerByUUID(playerId); }
+    { return PluginUtils.getOnlinePlayer(playerId); }
 
     public UUID getPlayerId()
     { return playerId; }
@@ -60,113 +51,40 @@ public final class PlayerHome
     { return UsernameCache.getLastKnownUsername(playerId); }
 
     public void assertPlayerHasPermissionToTpHere() throws PlayerMissingPermissionException
-    {
-        PlayerEntity onlineOwner = getPlayer();
-
-        if(onlineOwner != null)
-        {
-            EntityLocation playerLocation = new EntityLocation(onlineOwner);
-            String fromWorldPermission = NintiHomes.PERMISSION_HOMES_TP_FROMWORLD + "." + playerLocation.getWorldId();
-            Permissions.assertPlayerHasPermission(playerId, fromWorldPermission);
-        }
-    }
+    { new TpHomeContext(this).assertPlayerHasPermissionToTp(); }
 
     public boolean playerHasPermissionToTpHere()
-    {
-        PlayerEntity onlineOwner = getPlayer();
-
-        if(onlineOwner != null)
-        {
-            EntityLocation playerLocation = new EntityLocation(onlineOwner);
-            String fromWorldPermission = NintiHomes.PERMISSION_HOMES_TP_FROMWORLD + "." + playerLocation.getWorldId();
-
-            if(!Permissions.playerHasPermission(playerId, fromWorldPermission))
-                return false;
-
-            for(Zone z : Zones.getZonesAt(playerLocation))
-            {
-                String fromZonePermission = NintiHomes.PERMISSION_HOMES_TP_FROMZONE + "." + z.getName();
-
-                if(!Permissions.playerHasPermission(playerId, fromZonePermission))
-                    return false;
-            }
-        }
-
-        String toWorldPermission = NintiHomes.PERMISSION_HOMES_TP_TOWORLD + "." + location.getWorldId();
-
-        if(!Permissions.playerHasPermission(playerId, toWorldPermission))
-            return false;
-
-        for(Zone z : Zones.getZonesAt(location))
-        {
-            String toZonePermission = NintiHomes.PERMISSION_HOMES_TP_TOZONE + "." + z.getName();
-
-            if(!Permissions.playerHasPermission(playerId, toZonePermission))
-                return false;
-        }
-
-        return true;
-    }
+    { return new TpHomeContext(this).playerHasPermissionToTp(); }
 
     public Map<String, Double> requestCostsToTpHere() throws PlayerMissingPermissionException
-    { return getCostsToTpHere(true); }
+    { return new TpHomeContext(this).getCosts(true); }
 
     public Map<String, Double> getCostsToTpHere()
-    {
-        try
-        { return getCostsToTpHere(false); }
-        catch(PlayerMissingPermissionException e)
-        { throw new RuntimeException("This should never occur.", e); }
-    }
+    { return new TpHomeContext(this).getCosts(); }
 
-    private Map<String, Double> getCostsToTpHere(boolean checkPlayerHasPermission)
-            throws PlayerMissingPermissionException
+    // As requestCostsToTpHere, but returns null rather than throwing where the player is missing a permission needed.
+    public Map<String, Double> getCostsToTpHereIfPermitted()
     {
-        PlayerEntity onlineOwner = getPlayer();
-        Collection<Map<String, Double>> resultParts = new ArrayList<>();
-
-        if(onlineOwner != null)
-        {
-            EntityLocation playerLocation = new EntityLocation(onlineOwner);
-            String fromWorldPermission = NintiHomes.PERMISSION_HOMES_TP_FROMWORLD + "." + playerLocation.getWorldId();
-            resultParts.add(getTpCostsFromPerm(Permissions.getPlayerPermissionStatus(playerId, fromWorldPermission),
-                                               checkPlayerHasPermission));
-
-            for(Zone z : Zones.getZonesAt(playerLocation))
-            {
-                String fromZonePermission = NintiHomes.PERMISSION_HOMES_TP_FROMZONE + "." + z.getName();
-                resultParts.add(getTpCostsFromPerm(Permissions.getPlayerPermissionStatus(playerId, fromZonePermission),
-                                                   checkPlayerHasPermission));
-            }
-        }
-
-        String toWorldPermission = NintiHomes.PERMISSION_HOMES_TP_TOWORLD + "." + location.getWorldId();
-        resultParts.add(getTpCostsFromPerm(Permissions.getPlayerPermissionStatus(playerId, toWorldPermission),
-                                           checkPlayerHasPermission));
-
-        for(Zone z : Zones.getZonesAt(location))
-        {
-            String toZonePermission = NintiHomes.PERMISSION_HOMES_TP_TOZONE + "." + z.getName();
-            resultParts.add(getTpCostsFromPerm(Permissions.getPlayerPermissionStatus(playerId, toZonePermission),
-                                               checkPlayerHasPermission));
-        }
-
-        return MapUtils.sumMatchingDoubleValues(resultParts);
+        TpHomeContext context = new TpHomeContext(this);
+        return context.playerHasPermissionToTp() ? context.getCosts() : null;
     }
 
     public Map<String, Double> requestTpCostsFromPerm(PermissionStatus permStatus)
             throws PlayerMissingPermissionException
-    { return getTpCostsFromPerm(permStatus, true); }
+    { return new TpHomeContext(this).getCosts(permStatus, true); }
 
     public Map<String, Double> getTpCostsFromPerm(PermissionStatus permStatus)
     {
         try
-        { return getTpCostsFromPerm(permStatus, false); }
+        { return new TpHomeContext(this).getCosts(permStatus, false); }
         catch(PlayerMissingPermissionException e)
         { throw new RuntimeException("This should never occur.", e); }
     }
 
-    private Map<String, Double> getTpCostsFromPerm(PermissionStatus permStatus, boolean checkPlayerHasPermission)
+    Map<String, Double> getTpCostsFromPerm(PermissionStatus permStatus,
+                                           boolean checkPlayerHasPermission,
+                                           double distance,
+                                           double isAcrossWorlds)
             throws PlayerMissingPermissionException
     {
         if(checkPlayerHasPermission && !permStatus.hasPermission())
@@ -175,55 +93,12 @@ public final class PlayerHome
         if(permStatus.getPermissionArg() == null)
             return new HashMap<>();
 
-        Map<String, String> tpCostEquationsAsStrings = splitColonSeparatedValuePairs(permStatus.getPermissionArg());
-        DoubleMap<String> tpCosts = new DoubleMap<>();
-
-        PlayerEntity onlineOwner = getPlayer();
-        EntityLocation onlineOwnerLocation = onlineOwner == null ? null : new EntityLocation(onlineOwner);
-        double playerDistance = onlineOwner == null ? 0 : onlineOwnerLocation.getDistanceTo(location);
-        // 1 == true, 0 == false
-        double tpIsAcrossWorlds
-                = ((onlineOwner == null) || onlineOwnerLocation.getWorldId().equals(location.getWorldId())) ? 0 : 1;
-
-        for(Map.Entry<String, String> e : tpCostEquationsAsStrings.entrySet())
-        {
-            if(e.getValue() == null)
-            {
-                System.err.println("Currency cost improperly formatted: " + e.getKey()
-                                   + "\n    Should be in the form of, without square brackets: "
-                                   + "[currency code]: [equation]");
-                continue;
-            }
-
-            Equation eq;
-            try
-            { eq = tpCostEqBuilder.build(e.getValue()); }
-            catch(Equation.Builder.EquationParseException ex)
-            {
-                System.err.println("Error parsing currency cost for " + e.getKey() + ": " + e.getValue() + ":\n\n"
-                                   + ex.getMessage().replaceAll("(?m)^", "    "));
-
-                continue;
-            }
-
-            eq.setVariable("distance", playerDistance);
-            eq.setVariable("isAcrossWorlds", tpIsAcrossWorlds);
-
-            tpCosts.add(e.getKey(), eq.evaluate());
-        }
-
-        return tpCosts;
+        return TpCostEquations.forPermissionArg(permStatus.getPermissionArg()).evaluate(distance, isAcrossWorlds);
     }
 
     public void chargePlayerToTpHere()
             throws Currencies.UnrecognisedCurrencyException, CouldNotAffordToTpHomeException
-    {
-        Map<String, Double> tpCosts = getCostsToTpHere();
-        boolean couldAfford = Currencies.chargePlayer(playerId, tpCosts);
-
-        if(!couldAfford)
-            throw new CouldNotAffordToTpHomeException(playerId, homeName, tpCosts);
-    }
+    { new TpHomeContext(this).chargePlayer(); }
 
     public void tpHere() throws NoSuchWorldException
     {
@@ -253,8 +128,96 @@ public final class PlayerHome
                    CouldNotAffordToTpHomeException
     {
         location.assertWorldExists();
-        assertPlayerHasPermissionToTpHere();
-        chargePlayerToTpHere();
-        tpHere();
+        TpHomeContext context = new TpHomeContext(this);
+        context.assertPlayerHasPermissionToTp();
+        context.chargePlayer();
+
+        if(context.getPlayer() == null)
+            tpHere();
+        else
+            tpHere(context.getPlayer());
+    }
+
+    // As requestTpHere, but returns why the player couldn't be teleported rather than throwing. Players who are offline
+    // aren't charged.
+    public TpHomeOutcome tryTpHere()
+    {
+        Object event = HomesJfr.beginTeleport();
+        TpHomeOutcome outcome = tryTpHere(event);
+        HomesJfr.commitTeleport(event, this, outcome);
+        return outcome;
+    }
+
+    /*
+     * As tryTpHere, but once the player's been checked for permission, queues the teleport in HomeTeleports. They're
+     * only charged when the queued teleport's carried out, by tryTpHere. Players may only have one teleport queued at a
+     * time. The returned future is completed on the server thread.
+     */
+    public CompletableFuture<TpHomeOutcome> tryQueueTpHere()
+    {
+        try
+        { location.assertWorldExists(); }
+        catch(NoSuchWorldException e)
+        { return CompletableFuture.completedFuture(TpHomeOutcome.noSuchWorld(e.getWorldId())); }
+
+        TpHomeContext context = new TpHomeContext(this);
+
+        if(context.getPlayer() == null)
+            return CompletableFuture.completedFuture(TpHomeOutcome.playerOffline);
+
+        String missingPermission = context.getMissingPermissionToTp();
+
+        if(missingPermission != null)
+            return CompletableFuture.completedFuture(TpHomeOutcome.missingPermission(missingPermission));
+
+        return HomeTeleports.queue(this);
     }
+
+    // The event's null where it isn't being recorded.
+    private TpHomeOutcome tryTpHere(Object event)
+    {
+        try
+        { location.assertWorldExists(); }
+        catch(NoSuchWorldException e)
+        { return TpHomeOutcome.noSuchWorld(e.getWorldId()); }
+
+        TpHomeContext context = new TpHomeContext(this);
+        ServerPlayerEntity player = context.getPlayer();
+
+        if(player == null)
+            return TpHomeOutcome.playerOffline;
+
+        String missingPermission = context.getMissingPermissionToTp();
+        HomesJfr.endPermissionCheck(event);
+
+        if(missingPermission != null)
+            return TpHomeOutcome.missingPermission(missingPermission);
+
+        Map<String, Double> tpCosts = context.getCosts();
+        HomesJfr.endCostEvaluation(event);
+
+        try
+        {
+            if(!Currencies.chargePlayer(playerId, tpCosts))
+                return TpHomeOutcome.couldNotAfford(tpCosts);
+        }
+        catch(Currencies.UnrecognisedCurrencyException e)
+        { return TpHomeOutcome.unrecognisedCurrency(e.getCurrencyName()); }
+        finally
+        { HomesJfr.endCharge(event); }
+
+        try
+        { tpHere(player); }
+        catch(NoSuchWorldException e)
+        { return TpHomeOutcome.noSuchWorld(e.getWorldId()); }
+        finally
+        { HomesJfr.endTeleport(event); }
+
+        return TpHomeOutcome.teleported;
+    }
+
+    // As tryTpHere, but where the chunk this home is in isn't loaded, waits for it to be loaded first, up to the
+    // timeout set in HomeTeleports. Should be called on the server thread, and the returned future is completed on it.
+    public CompletableFuture<TpHomeOutcome> tryTpHereOnceLoaded()
+    { return HomeTeleports.tryTpWhenLoaded(this); }
 }
@@ -3,7 +3,6 @@ package scot.massie.mc.ninti.homes;
 import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraftforge.common.UsernameCache;
 import scot.massie.lib.permissions.PermissionStatus;
-import scot.massie.mc.ninti.core.Permissions;
 import scot.massie.mc.ninti.core.PluginUtils;
 import scot.massie.mc.ninti.core.exceptions.PlayerMissingPermissionException;
 import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
@@ -14,6 +13,7 @@ import scot.massie.mc.ninti.homes.Exceptions.WorldHomeCapReachedException;
 import scot.massie.mc.ninti.homes.Exceptions.ZoneHomeCapReachedException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -22,12 +22,34 @@ import java.util.UUID;
 
 public final class PlayerHomesList
 {
+    private static final class ZoneHomeCount
+    {
+        public ZoneHomeCount(Zone zone, int count)
+        {
+            this.zone = zone;
+            this.count = count;
+        }
+
+        final Zone zone;
+        int count;
+    }
+
     private final UUID playerId;
-    private final Map<String, PlayerHome> playerHomes = new HashMap<>();
+    private final PlayerHomesStore playerHomes;
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+
+    private static final int cheapestHomeCandidatesPerWorld = 3;
+
+    // Only kept for zones homes have been counted in, by zone name, as zones may be added at any time. Guarded by
+    // playerHomes.
+    private final Map<String, ZoneHomeCount> homeCountsByZone = new HashMap<>();
+    private int zoneHomeCountsVersion = Homes.getZoneHomeCountsVersion();
 
     public PlayerHomesList(UUID playerId)
     {
         this.playerId = playerId;
+        this.playerHomes = Homes.isUsingColumnarStorage() ? new ColumnarPlayerHomesStore(playerId)
+                                                          : new MapPlayerHomesStore();
     }
 
     public boolean isEmpty()
@@ -39,6 +61,12 @@ public final class PlayerHomesList
     public UUID getPlayerId()
     { return playerId; }
 
+    long getLastUsedMillis()
+    { return lastUsedMillis; }
+
+    void markUsed()
+    { lastUsedMillis = System.currentTimeMillis(); }
+
     public String getPlayerName()
     {
         String username = UsernameCache.getLastKnownUsername(playerId);
@@ -58,52 +86,243 @@ public final class PlayerHomesList
     public List<PlayerHome> getHomes()
     {
         synchronized(playerHomes)
-        { return new ArrayList<>(playerHomes.values()); }
+        { return playerHomes.getAll(); }
     }
 
+    // Sorted by name, ignoring case.
+    public List<PlayerHome> getHomesSortedByName()
+    {
+        synchronized(playerHomes)
+        { return playerHomes.getAll(); }
+    }
+
+    // Adds these homes to the given index while holding this list's lock, so changes to them made meanwhile, which are
+    // applied to the index under the same lock, are applied after rather than overwritten.
+    void addHomesTo(HomesSpatialIndex index)
+    {
+        synchronized(playerHomes)
+        {
+            for(PlayerHome home : playerHomes.getAll())
+                index.add(home);
+        }
+    }
+
+    // Counts these homes by world ID.
+    Map<String, Integer> countHomesByWorld()
+    {
+        synchronized(playerHomes)
+        {
+            Map<String, Integer> result = new HashMap<>();
+
+            for(String worldId : playerHomes.getWorldIds())
+                result.put(worldId, playerHomes.countInWorld(worldId));
+
+            return result;
+        }
+    }
+
+    // As addHomesTo, for the player name index. Where this player has no homes, they're not added.
+    void addTo(PlayerNameIndex index)
+    {
+        synchronized(playerHomes)
+        {
+            if(playerHomes.isEmpty())
+                return;
+
+            index.update(playerId);
+            index.setHomeCounts(playerId, countHomesByWorld());
+        }
+    }
+
+    public int countHomes()
+    {
+        synchronized(playerHomes)
+        { return playerHomes.size(); }
+    }
+
+    // Sorted ignoring case.
     public List<String> getHomeNames()
     {
-        List<String> result;
+        synchronized(playerHomes)
+        { return playerHomes.getNames(); }
+    }
 
+    // Sorted ignoring case. The prefix isn't case-sensitive.
+    public List<String> getHomeNamesStartingWith(String prefix)
+    {
         synchronized(playerHomes)
-        { result = new ArrayList<>(playerHomes.keySet()); }
+        { return playerHomes.getNamesStartingWith(prefix); }
+    }
+
+    public Map<String, PlayerHome> getHomesAsMap()
+    {
+        Map<String, PlayerHome> result = new HashMap<>();
+
+        for(PlayerHome home : getHomes())
+            result.put(home.getName(), home);
 
-        result.sort(Comparator.naturalOrder());
         return result;
     }
 
-    public Map<String, PlayerHome> getHomesAsMap()
+    public int countHomesInWorld(String worldId)
     {
         synchronized(playerHomes)
-        { return new HashMap<>(playerHomes); }
+        { return playerHomes.countInWorld(worldId); }
     }
 
-    public int countHomesInWorld(String worldId)
+    // Gets the nearest homes in the same world as the given location, nearest first, up to the given number of them.
+    public List<PlayerHome> getNearestHomes(EntityLocation location, int max)
+    {
+        List<PlayerHome> result;
+
+        synchronized(playerHomes)
+        { result = playerHomes.getInWorld(location.getWorldId()); }
+
+        result.sort(Comparator.comparingDouble(home -> location.getDistanceTo(home.getLocation())));
+        return result.size() > max ? new ArrayList<>(result.subList(0, max)) : result;
+    }
+
+    // Returns null where there are no homes in the same world as the given location.
+    public PlayerHome getNearestHome(EntityLocation location)
     {
-        int count = 0;
+        PlayerHome nearest = null;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        List<PlayerHome> homesInWorld;
 
         synchronized(playerHomes)
+        { homesInWorld = playerHomes.getInWorld(location.getWorldId()); }
+
+        for(PlayerHome home : homesInWorld)
         {
-            for(PlayerHome home : playerHomes.values())
-                if(home.getLocation().getWorldId().equals(worldId))
-                    count++;
+            double distance = location.getDistanceTo(home.getLocation());
+
+            if(distance < nearestDistance)
+            {
+                nearest = home;
+                nearestDistance = distance;
+            }
         }
 
-        return count;
+        return nearest;
     }
 
-    public int countHomesInZone(Zone zone)
+    // Returns null where the player is offline or has no homes in the world they're in.
+    public PlayerHome getNearestHome()
+    {
+        ServerPlayerEntity player = PluginUtils.getOnlinePlayer(playerId);
+        return player == null ? null : getNearestHome(new EntityLocation(player));
+    }
+
+    /*
+     * Gets the home the player may teleport to that costs the least in total across currencies, where ties go to homes
+     * in the player's current world, and then to the nearer home. Costs are only worked out for the nearest few homes
+     * in each world, as costs may vary by zone but otherwise only go up with distance. Returns null where the player is
+     * offline or may teleport to none of them.
+     */
+    public PlayerHome getCheapestHome()
     {
-        int count = 0;
+        ServerPlayerEntity player = PluginUtils.getOnlinePlayer(playerId);
+
+        if(player == null)
+            return null;
+
+        EntityLocation playerLocation = new EntityLocation(player);
+        List<String> worldIds;
+
+        synchronized(playerHomes)
+        { worldIds = playerHomes.getWorldIds(); }
+
+        if(worldIds.remove(playerLocation.getWorldId()))
+            worldIds.add(0, playerLocation.getWorldId());
 
+        List<PlayerHome> candidates = new ArrayList<>();
+
+        for(String worldId : worldIds)
+        {
+            EntityLocation locationInWorld = new EntityLocation(worldId,
+                                                                playerLocation.getX(),
+                                                                playerLocation.getY(),
+                                                                playerLocation.getZ(),
+                                                                playerLocation.getPitch(),
+                                                                playerLocation.getYaw());
+
+            candidates.addAll(getNearestHomes(locationInWorld, cheapestHomeCandidatesPerWorld));
+        }
+
+        PlayerHome cheapest = null;
+        double cheapestCost = Double.POSITIVE_INFINITY;
+
+        for(PlayerHome home : candidates)
+        {
+            Map<String, Double> costs = home.getCostsToTpHereIfPermitted();
+
+            if(costs == null)
+                continue;
+
+            double cost = 0;
+
+            for(double currencyCost : costs.values())
+                cost += currencyCost;
+
+            if(cost < cheapestCost)
+            {
+                cheapest = home;
+                cheapestCost = cost;
+            }
+        }
+
+        return cheapest;
+    }
+
+    public int countHomesInZone(Zone zone)
+    {
         synchronized(playerHomes)
         {
-            for(PlayerHome home : playerHomes.values())
-                if(zone.contains(home.getLocation()))
-                    count++;
+            int currentZoneHomeCountsVersion = Homes.getZoneHomeCountsVersion();
+
+            if(zoneHomeCountsVersion != currentZoneHomeCountsVersion)
+            {
+                homeCountsByZone.clear();
+                zoneHomeCountsVersion = currentZoneHomeCountsVersion;
+            }
+
+            ZoneHomeCount zoneHomeCount = homeCountsByZone.get(zone.getName());
+
+            // A different zone object under the same name is a zone that's been redefined since it was counted in.
+            if(zoneHomeCount == null || zoneHomeCount.zone != zone)
+            {
+                int count = 0;
+
+                for(PlayerHome home : playerHomes.getAll())
+                    if(zone.contains(home.getLocation()))
+                        count++;
+
+                zoneHomeCount = new ZoneHomeCount(zone, count);
+                homeCountsByZone.put(zone.getName(), zoneHomeCount);
+            }
+
+            return zoneHomeCount.count;
         }
+    }
+
+    // Must be called while holding playerHomes, whenever a home is added to (change == 1) or removed from it (-1).
+    private void updateHomeCounts(PlayerHome home, int change)
+    {
+        EntityLocation location = home.getLocation();
 
-        return count;
+        for(ZoneHomeCount zoneHomeCount : homeCountsByZone.values())
+            if(zoneHomeCount.zone.contains(location))
+                zoneHomeCount.count += change;
+    }
+
+    private void putHome(PlayerHome home)
+    {
+        PlayerHome replacedHome = playerHomes.put(home);
+
+        if(replacedHome != null)
+            updateHomeCounts(replacedHome, -1);
+
+        updateHomeCounts(home, 1);
     }
 
     public PlayerHome setHome(String homeName)
@@ -118,14 +337,28 @@ public final class PlayerHomesList
 
     public PlayerHome setHome(String homeName, EntityLocation location)
     {
-        PlayerHome newHome = new PlayerHome(playerId, homeName, location);
+        PlayerHome newHome
+                = new PlayerHome(playerId, Homes.internHomeName(homeName), Homes.withInternedWorldId(location));
 
         synchronized(playerHomes)
-        { playerHomes.put(homeName, newHome); }
+        {
+            putHome(newHome);
+            Homes.onHomeSet(this, newHome);
+        }
 
         return newHome;
     }
 
+    // Adds homes read from a homes file, without marking this as changed.
+    void loadHomes(Collection<PlayerHome> homes)
+    {
+        synchronized(playerHomes)
+        {
+            for(PlayerHome home : homes)
+                putHome(home);
+        }
+    }
+
     public PlayerHome requestSetHome(String homeName)
             throws PlayerMissingPermissionException,
                    ServerHomeCapReachedException,
@@ -146,14 +379,60 @@ public final class PlayerHomesList
                    WorldHomeCapReachedException,
                    ZoneHomeCapReachedException
     {
-        String inWorldPermission = NintiHomes.PERMISSION_HOMES_ADD_INWORLD + "." + location.getWorldId();
-        PermissionStatus wpstatus = Permissions.getPlayerPermissionStatus(playerId, inWorldPermission);
+        SetHomeOutcome outcome = trySetHome(homeName, location);
+
+        switch(outcome.getKind())
+        {
+            case MISSING_PERMISSION:
+                throw new PlayerMissingPermissionException(playerId, outcome.getMissingPermission());
+            case SERVER_HOME_CAP_REACHED:
+                throw new ServerHomeCapReachedException(playerId, outcome.getHomesAllowed());
+            case WORLD_HOME_CAP_REACHED:
+                throw new WorldHomeCapReachedException(playerId, outcome.getHomesAllowed(), outcome.getWorldId());
+            case ZONE_HOME_CAP_REACHED:
+                throw new ZoneHomeCapReachedException(playerId, outcome.getHomesAllowed(), outcome.getZoneName());
+            default:
+                return outcome.getHome();
+        }
+    }
+
+    // As requestSetHome, but returns why the home couldn't be set rather than throwing.
+    public SetHomeOutcome trySetHome(String homeName)
+    {
+        ServerPlayerEntity player = PluginUtils.getOnlinePlayer(playerId);
+
+        if(player == null)
+            return SetHomeOutcome.playerOffline;
+
+        return trySetHome(homeName, new EntityLocation(player));
+    }
+
+    public SetHomeOutcome trySetHome(String homeName, EntityLocation location)
+    {
+        long startedAt = System.nanoTime();
+        Object event = HomesJfr.beginSetHome();
+        SetHomeOutcome outcome;
+
+        try
+        { outcome = checkCapsAndSetHome(homeName, location); }
+        finally
+        { HomesMetrics.setHomeCapChecks.recordSince(startedAt); }
+
+        HomesJfr.commitSetHome(event, playerId, homeName, location.getWorldId(), outcome);
+        return outcome;
+    }
+
+    private SetHomeOutcome checkCapsAndSetHome(String homeName, EntityLocation location)
+    {
+        String inWorldPermission = CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_ADD_INWORLD,
+                                                             location.getWorldId());
+        PermissionStatus wpstatus = CachedPermissions.getStatus(playerId, inWorldPermission);
 
         if(!wpstatus.hasPermission())
-            throw new PlayerMissingPermissionException(playerId, inWorldPermission);
+            return SetHomeOutcome.missingPermission(inWorldPermission);
 
         String wparg = wpstatus.getPermissionArg();
-        String sparg = Permissions.getPlayerPermissionArg(playerId, NintiHomes.PERMISSION_HOMES_ADD);
+        String sparg = CachedPermissions.getArg(playerId, NintiHomes.PERMISSION_HOMES_ADD);
 
         synchronized(playerHomes)
         {
@@ -170,7 +449,7 @@ public final class PlayerHomesList
                         numberOfHomesAlreadyOnServer--;
 
                     if(numberOfHomesAlreadyOnServer >= numberOfHomesAllowedOnServer)
-                        throw new ServerHomeCapReachedException(playerId, numberOfHomesAllowedOnServer);
+                        return SetHomeOutcome.serverHomeCapReached(numberOfHomesAllowedOnServer);
                 }
                 catch(NumberFormatException e)
                 { /* Don't check against the number of homes allowed. */ }
@@ -187,9 +466,7 @@ public final class PlayerHomesList
                         numberOfHomesAlreadyInWorld--;
 
                     if(numberOfHomesAlreadyInWorld >= numberOfHomesAllowedInWorld)
-                        throw new WorldHomeCapReachedException(playerId,
-                                                               numberOfHomesAllowedInWorld,
-                                                               location.getWorldId());
+                        return SetHomeOutcome.worldHomeCapReached(numberOfHomesAllowedInWorld, location.getWorldId());
                 }
                 catch(NumberFormatException e)
                 { /* Don't check against the number of homes allowed. */ }
@@ -197,11 +474,12 @@ public final class PlayerHomesList
 
             for(Zone z : Zones.getZonesAt(location))
             {
-                String inZonePermission = NintiHomes.PERMISSION_HOMES_ADD_INZONE + "." + z.getName();
-                PermissionStatus zpstatus = Permissions.getPlayerPermissionStatus(playerId, inZonePermission);
+                String inZonePermission = CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_ADD_INZONE,
+                                                                    z.getName());
+                PermissionStatus zpstatus = CachedPermissions.getStatus(playerId, inZonePermission);
 
                 if(!zpstatus.hasPermission())
-                    throw new PlayerMissingPermissionException(playerId, inZonePermission);
+                    return SetHomeOutcome.missingPermission(inZonePermission);
 
                 String zparg = zpstatus.getPermissionArg();
 
@@ -216,26 +494,46 @@ public final class PlayerHomesList
                             numberOfHomesAlreadyInZone--;
 
                         if(numberOfHomesAlreadyInZone >= numberOfHomesAllowedInZone)
-                            throw new ZoneHomeCapReachedException(playerId, numberOfHomesAllowedInZone, z.getName());
+                            return SetHomeOutcome.zoneHomeCapReached(numberOfHomesAllowedInZone, z.getName());
                     }
                     catch(NumberFormatException e)
                     { /* Don't check against the number of homes allowed */ }
                 }
             }
 
-            return setHome(homeName, location);
+            return SetHomeOutcome.set(setHome(homeName, location));
         }
     }
 
     public PlayerHome deleteHome(String homeName)
     {
         synchronized(playerHomes)
-        { return playerHomes.remove(homeName); }
+        {
+            PlayerHome deletedHome = playerHomes.remove(homeName);
+
+            if(deletedHome != null)
+            {
+                updateHomeCounts(deletedHome, -1);
+                Homes.onHomeDeleted(this, homeName);
+            }
+
+            return deletedHome;
+        }
     }
 
     public void clear()
     {
         synchronized(playerHomes)
-        { playerHomes.clear(); }
+        {
+            if(playerHomes.isEmpty())
+                return;
+
+            playerHomes.clear();
+
+            for(ZoneHomeCount zoneHomeCount : homeCountsByZone.values())
+                zoneHomeCount.count = 0;
+
+            Homes.onHomesCleared(this);
+        }
     }
 }
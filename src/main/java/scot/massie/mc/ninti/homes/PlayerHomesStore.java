@@ -0,0 +1,42 @@
+package scot.massie.mc.ninti.homes;
+
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Where a player's homes are kept, for PlayerHomesList. Not thread-safe - PlayerHomesList synchronises on the store.
+ * Home names are kept in homeNameOrder, so they can be listed in order and looked up by prefix.
+ */
+interface PlayerHomesStore
+{
+    // Ignoring case, then by case.
+    Comparator<String> homeNameOrder = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    int size();
+
+    boolean isEmpty();
+
+    PlayerHome get(String homeName);
+
+    // Returns the home replaced, if any.
+    PlayerHome put(PlayerHome home);
+
+    PlayerHome remove(String homeName);
+
+    void clear();
+
+    // Sorted by name, in homeNameOrder.
+    List<PlayerHome> getAll();
+
+    // Sorted in homeNameOrder.
+    List<String> getNames();
+
+    // Sorted in homeNameOrder. The prefix isn't case-sensitive.
+    List<String> getNamesStartingWith(String prefix);
+
+    List<PlayerHome> getInWorld(String worldId);
+
+    int countInWorld(String worldId);
+
+    List<String> getWorldIds();
+}
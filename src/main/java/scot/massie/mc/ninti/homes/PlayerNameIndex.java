@@ -0,0 +1,234 @@
+package scot.massie.mc.ninti.homes;
+
+import net.minecraftforge.common.UsernameCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/*
+ * The last known usernames of players with homes, sorted case-insensitively so they can be looked up by prefix. Players
+ * whose usernames aren't known are kept apart, by ID, and aren't found by name.
+ *
+ * Players' counts of homes in each world are kept too, along with the totals across all players, so pages of homes
+ * can be counted, and can skip whole players, without players' homes being loaded.
+ */
+final class PlayerNameIndex
+{
+    private static final class NamedPlayer
+    {
+        public NamedPlayer(UUID playerId, String name)
+        {
+            this.playerId = playerId;
+            this.name = name;
+        }
+
+        final UUID playerId;
+        final String name;
+    }
+
+    // By lowercase username.
+    private final TreeMap<String, NamedPlayer> playersByName = new TreeMap<>();
+
+    // Lowercase usernames, by player ID.
+    private final Map<UUID, String> namesByPlayer = new HashMap<>();
+
+    private final TreeSet<UUID> unnamedPlayers = new TreeSet<>();
+
+    // By player ID, then by world ID.
+    private final Map<UUID, Map<String, Integer>> homeCounts = new HashMap<>();
+
+    // The sums of homeCounts, by world ID and across all worlds.
+    private final Map<String, Integer> totalHomeCountsByWorld = new HashMap<>();
+    private int totalHomeCount = 0;
+
+    // Set once every player with homes at the time the index was started has been added.
+    private volatile boolean isComplete = false;
+
+    private static String toKey(String name)
+    { return name.toLowerCase(Locale.ROOT); }
+
+    public boolean isComplete()
+    { return isComplete; }
+
+    public void markComplete()
+    { isComplete = true; }
+
+    public synchronized boolean contains(UUID playerId)
+    { return namesByPlayer.containsKey(playerId) || unnamedPlayers.contains(playerId); }
+
+    // Adds the player, or updates their username where it's changed.
+    public synchronized void update(UUID playerId)
+    {
+        String name = UsernameCache.getLastKnownUsername(playerId);
+
+        if(name == null)
+        {
+            unnamedPlayers.add(playerId);
+            return;
+        }
+
+        unnamedPlayers.remove(playerId);
+        String key = toKey(name);
+        String oldKey = namesByPlayer.put(playerId, key);
+
+        if(oldKey != null && !oldKey.equals(key))
+            playersByName.remove(oldKey);
+
+        // Where another player has since taken this username, the one with it before no longer has a known username.
+        NamedPlayer replaced = playersByName.put(key, new NamedPlayer(playerId, name));
+
+        if(replaced != null && !replaced.playerId.equals(playerId))
+        {
+            namesByPlayer.remove(replaced.playerId);
+            unnamedPlayers.add(replaced.playerId);
+        }
+    }
+
+    // Replaces the player's counts of homes by world ID. Doesn't add the player where they aren't already included.
+    public synchronized void setHomeCounts(UUID playerId, Map<String, Integer> homeCountsByWorld)
+    {
+        if(!(namesByPlayer.containsKey(playerId) || unnamedPlayers.contains(playerId)))
+            return;
+
+        addToTotals(homeCounts.put(playerId, homeCountsByWorld), -1);
+        addToTotals(homeCountsByWorld, 1);
+    }
+
+    // Where sign is -1, subtracts the given counts from the totals instead.
+    private void addToTotals(Map<String, Integer> homeCountsByWorld, int sign)
+    {
+        if(homeCountsByWorld == null)
+            return;
+
+        for(Map.Entry<String, Integer> count : homeCountsByWorld.entrySet())
+        {
+            totalHomeCount += sign * count.getValue();
+            totalHomeCountsByWorld.merge(count.getKey(), sign * count.getValue(), Integer::sum);
+
+            if(totalHomeCountsByWorld.get(count.getKey()) == 0)
+                totalHomeCountsByWorld.remove(count.getKey());
+        }
+    }
+
+    // Counts the player's homes in the given world, or in all worlds where worldId is null.
+    private int getHomeCount(UUID playerId, String worldId)
+    {
+        Map<String, Integer> homeCountsByWorld = homeCounts.get(playerId);
+
+        if(homeCountsByWorld == null)
+            return 0;
+
+        if(worldId != null)
+            return homeCountsByWorld.getOrDefault(worldId, 0);
+
+        int result = 0;
+
+        for(int count : homeCountsByWorld.values())
+            result += count;
+
+        return result;
+    }
+
+    /*
+     * Counts the homes of players whose usernames start with the given prefix, in the given world, or in all worlds
+     * where worldId is null. Where the prefix is empty, this includes players with no known username, and is read from
+     * the totals rather than counted.
+     */
+    public synchronized int countHomes(String prefix, String worldId)
+    {
+        if(prefix.isEmpty())
+            return worldId == null ? totalHomeCount : totalHomeCountsByWorld.getOrDefault(worldId, 0);
+
+        int result = 0;
+
+        for(NamedPlayer player : getPlayersStartingWith(prefix))
+            result += getHomeCount(player.playerId, worldId);
+
+        return result;
+    }
+
+    public synchronized void remove(UUID playerId)
+    {
+        addToTotals(homeCounts.remove(playerId), -1);
+        String key = namesByPlayer.remove(playerId);
+
+        if(key != null)
+            playersByName.remove(key);
+        else
+            unnamedPlayers.remove(playerId);
+    }
+
+    // Returns null where there's no player with homes by that name.
+    public synchronized UUID getPlayerId(String name)
+    {
+        NamedPlayer player = playersByName.get(toKey(name));
+        return player == null ? null : player.playerId;
+    }
+
+    private Collection<NamedPlayer> getPlayersStartingWith(String prefix)
+    {
+        String key = toKey(prefix);
+        return playersByName.subMap(key, true, key + Character.MAX_VALUE, false).values();
+    }
+
+    // Sorted case-insensitively. The prefix isn't case-sensitive.
+    public synchronized List<String> getNamesStartingWith(String prefix)
+    {
+        Collection<NamedPlayer> matches = getPlayersStartingWith(prefix);
+        List<String> result = new ArrayList<>(matches.size());
+
+        for(NamedPlayer player : matches)
+            result.add(player.name);
+
+        return result;
+    }
+
+    /*
+     * Gets the players with homes on a page of homes, where the given number of homes come before the page. Players
+     * whose usernames start with the given prefix are included, sorted by username, case-insensitively, followed by
+     * players with no known username, by ID, where the prefix is empty. Only homes in the given world are counted,
+     * where worldId isn't null.
+     *
+     * Returned in page order, with how many of each player's homes come before the page. Players before the page are
+     * skipped by their home counts, and the players after it aren't gone through.
+     */
+    public synchronized Map<UUID, Integer> getPlayersOnPage(String prefix,
+                                                            String worldId,
+                                                            long homesToSkip,
+                                                            int pageSize)
+    {
+        Map<UUID, Integer> result = new LinkedHashMap<>();
+        long homesToInclude = pageSize;
+        Iterator<UUID> playerIds = Stream.concat(getPlayersStartingWith(prefix).stream().map(p -> p.playerId),
+                                                 prefix.isEmpty() ? unnamedPlayers.stream() : Stream.empty())
+                                         .iterator();
+
+        while(homesToInclude > 0 && playerIds.hasNext())
+        {
+            UUID playerId = playerIds.next();
+            int homeCount = getHomeCount(playerId, worldId);
+
+            if(homesToSkip >= homeCount)
+            {
+                homesToSkip -= homeCount;
+                continue;
+            }
+
+            result.put(playerId, (int)homesToSkip);
+            homesToInclude -= homeCount - homesToSkip;
+            homesToSkip = 0;
+        }
+
+        return result;
+    }
+}
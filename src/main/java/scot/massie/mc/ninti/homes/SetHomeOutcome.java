@@ -0,0 +1,71 @@
+package scot.massie.mc.ninti.homes;
+
+/*
+ * The result of trying to set a home. Where the home couldn't be set, says why, as the exceptions thrown by
+ * PlayerHomesList.requestSetHome would.
+ */
+public final class SetHomeOutcome
+{
+    public enum Kind
+    {
+        SET,
+        PLAYER_OFFLINE,
+        MISSING_PERMISSION,
+        SERVER_HOME_CAP_REACHED,
+        WORLD_HOME_CAP_REACHED,
+        ZONE_HOME_CAP_REACHED
+    }
+
+    static final SetHomeOutcome playerOffline = new SetHomeOutcome(Kind.PLAYER_OFFLINE, null, null, 0, null);
+
+    private SetHomeOutcome(Kind kind, PlayerHome home, String missingPermission, int homesAllowed, String capName)
+    {
+        this.kind = kind;
+        this.home = home;
+        this.missingPermission = missingPermission;
+        this.homesAllowed = homesAllowed;
+        this.capName = capName;
+    }
+
+    private final Kind kind;
+    private final PlayerHome home;
+    private final String missingPermission;
+    private final int homesAllowed;
+    private final String capName; // The world ID or zone name of the cap reached.
+
+    static SetHomeOutcome set(PlayerHome home)
+    { return new SetHomeOutcome(Kind.SET, home, null, 0, null); }
+
+    static SetHomeOutcome missingPermission(String permission)
+    { return new SetHomeOutcome(Kind.MISSING_PERMISSION, null, permission, 0, null); }
+
+    static SetHomeOutcome serverHomeCapReached(int homesAllowed)
+    { return new SetHomeOutcome(Kind.SERVER_HOME_CAP_REACHED, null, null, homesAllowed, null); }
+
+    static SetHomeOutcome worldHomeCapReached(int homesAllowed, String worldId)
+    { return new SetHomeOutcome(Kind.WORLD_HOME_CAP_REACHED, null, null, homesAllowed, worldId); }
+
+    static SetHomeOutcome zoneHomeCapReached(int homesAllowed, String zoneName)
+    { return new SetHomeOutcome(Kind.ZONE_HOME_CAP_REACHED, null, null, homesAllowed, zoneName); }
+
+    public Kind getKind()
+    { return kind; }
+
+    public boolean wasSet()
+    { return kind == Kind.SET; }
+
+    public PlayerHome getHome()
+    { return home; }
+
+    public String getMissingPermission()
+    { return missingPermission; }
+
+    public int getHomesAllowed()
+    { return homesAllowed; }
+
+    public String getWorldId()
+    { return kind == Kind.WORLD_HOME_CAP_REACHED ? capName : null; }
+
+    public String getZoneName()
+    { return kind == Kind.ZONE_HOME_CAP_REACHED ? capName : null; }
+}
@@ -0,0 +1,114 @@
+package scot.massie.mc.ninti.homes;
+
+import scot.massie.lib.collections.maps.DoubleMap;
+import scot.massie.lib.maths.Equation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static scot.massie.lib.utils.StringUtils.*;
+
+/*
+ * The parsed form of a tp cost permission argument, in the form "[currency code]: [equation], ...". These are cached
+ * by permission argument, so each is only parsed (and any problems with it reported) once, until it's evicted from the
+ * cache for not having been used recently.
+ */
+final class TpCostEquations
+{
+    private static final int maxCachedPermissionArgs = 256;
+
+    private static final Map<String, TpCostEquations> cache
+            = new LinkedHashMap<String, TpCostEquations>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TpCostEquations> eldest)
+        { return size() > maxCachedPermissionArgs; }
+    };
+
+    private final List<String> currencies;
+    private final List<Equation> equations;
+
+    private TpCostEquations(List<String> currencies, List<Equation> equations)
+    {
+        this.currencies = currencies;
+        this.equations = equations;
+    }
+
+    public static TpCostEquations forPermissionArg(String permissionArg)
+    {
+        synchronized(cache)
+        {
+            TpCostEquations result = cache.get(permissionArg);
+
+            if(result == null)
+            {
+                result = parse(permissionArg);
+                cache.put(permissionArg, result);
+            }
+
+            return result;
+        }
+    }
+
+    public static void clearCache()
+    {
+        synchronized(cache)
+        { cache.clear(); }
+    }
+
+    private static TpCostEquations parse(String permissionArg)
+    {
+        Map<String, String> tpCostEquationsAsStrings = splitColonSeparatedValuePairs(permissionArg);
+        List<String> currencies = new ArrayList<>(tpCostEquationsAsStrings.size());
+        List<Equation> equations = new ArrayList<>(tpCostEquationsAsStrings.size());
+
+        for(Map.Entry<String, String> e : tpCostEquationsAsStrings.entrySet())
+        {
+            if(e.getValue() == null)
+            {
+                System.err.println("Currency cost improperly formatted: " + e.getKey()
+                                   + "\n    Should be in the form of, without square brackets: "
+                                   + "[currency code]: [equation]");
+                continue;
+            }
+
+            Equation eq;
+            try
+            { eq = PlayerHome.tpCostEqBuilder.build(e.getValue()); }
+            catch(Equation.Builder.EquationParseException ex)
+            {
+                System.err.println("Error parsing currency cost for " + e.getKey() + ": " + e.getValue() + ":\n\n"
+                                   + ex.getMessage().replaceAll("(?m)^", "    "));
+
+                continue;
+            }
+
+            currencies.add(e.getKey());
+            equations.add(eq);
+        }
+
+        return new TpCostEquations(currencies, equations);
+    }
+
+    public DoubleMap<String> evaluate(double distance, double isAcrossWorlds)
+    {
+        DoubleMap<String> tpCosts = new DoubleMap<>();
+
+        for(int i = 0; i < equations.size(); i++)
+        {
+            Equation eq = equations.get(i);
+
+            // Equations are shared between threads, and their variables are set on the equation itself.
+            synchronized(eq)
+            {
+                eq.setVariable("distance", distance);
+                eq.setVariable("isAcrossWorlds", isAcrossWorlds);
+                tpCosts.add(currencies.get(i), eq.evaluate());
+            }
+        }
+
+        return tpCosts;
+    }
+}
@@ -0,0 +1,176 @@
+package scot.massie.mc.ninti.homes;
+
+import net.minecraft.entity.player.ServerPlayerEntity;
+import scot.massie.lib.collections.maps.MapUtils;
+import scot.massie.lib.permissions.PermissionStatus;
+import scot.massie.mc.ninti.core.currencies.Currencies;
+import scot.massie.mc.ninti.core.exceptions.PlayerMissingPermissionException;
+import scot.massie.mc.ninti.core.utilclasses.EntityLocation;
+import scot.massie.mc.ninti.core.zones.Zone;
+import scot.massie.mc.ninti.core.zones.Zones;
+import scot.massie.mc.ninti.homes.Exceptions.CouldNotAffordToTpHomeException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Everything needed to check whether a player may teleport to one of their homes, and what it costs them to, looked up
+ * once. The player's location, the zones at either end, and the statuses of the relevant permissions are as of when
+ * this was created.
+ */
+final class TpHomeContext
+{
+    private final PlayerHome home;
+    private final UUID playerId;
+    private final ServerPlayerEntity player; // Null where the player is offline.
+    private final EntityLocation playerLocation; // Null where the player is offline.
+
+    // Null where the player is offline.
+    private final PermissionStatus fromWorldPermissionStatus;
+    private final List<PermissionStatus> fromZonePermissionStatuses;
+
+    private final PermissionStatus toWorldPermissionStatus;
+    private final List<PermissionStatus> toZonePermissionStatuses;
+
+    private final double distance;
+    private final double isAcrossWorlds; // 1 == true, 0 == false
+
+    TpHomeContext(PlayerHome home)
+    {
+        this.home = home;
+        this.playerId = home.getPlayerId();
+        this.player = home.getPlayer();
+        EntityLocation location = home.getLocation();
+
+        if(player != null)
+        {
+            playerLocation = new EntityLocation(player);
+            String fromWorldPermission = CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_TP_FROMWORLD,
+                                                                   playerLocation.getWorldId());
+            fromWorldPermissionStatus = CachedPermissions.getStatus(playerId, fromWorldPermission);
+            fromZonePermissionStatuses = getZonePermissionStatuses(NintiHomes.PERMISSION_HOMES_TP_FROMZONE,
+                                                                   playerLocation);
+
+            distance = playerLocation.getDistanceTo(location);
+            isAcrossWorlds = playerLocation.getWorldId().equals(location.getWorldId()) ? 0 : 1;
+        }
+        else
+        {
+            playerLocation = null;
+            fromWorldPermissionStatus = null;
+            fromZonePermissionStatuses = Collections.emptyList();
+            distance = 0;
+            isAcrossWorlds = 0;
+        }
+
+        String toWorldPermission = CachedPermissions.getNode(NintiHomes.PERMISSION_HOMES_TP_TOWORLD,
+                                                             location.getWorldId());
+        toWorldPermissionStatus = CachedPermissions.getStatus(playerId, toWorldPermission);
+        toZonePermissionStatuses = getZonePermissionStatuses(NintiHomes.PERMISSION_HOMES_TP_TOZONE, location);
+    }
+
+    private List<PermissionStatus> getZonePermissionStatuses(String permissionPrefix, EntityLocation location)
+    {
+        List<Zone> zones = Zones.getZonesAt(location);
+        List<PermissionStatus> result = new ArrayList<>(zones.size());
+
+        for(Zone z : zones)
+            result.add(CachedPermissions.getStatus(playerId, CachedPermissions.getNode(permissionPrefix, z.getName())));
+
+        return result;
+    }
+
+    public PlayerHome getHome()
+    { return home; }
+
+    public ServerPlayerEntity getPlayer()
+    { return player; }
+
+    public EntityLocation getPlayerLocation()
+    { return playerLocation; }
+
+    // Returns null where the player has the permission needed to teleport.
+    public String getMissingPermissionToTp()
+    {
+        if(fromWorldPermissionStatus != null && !fromWorldPermissionStatus.hasPermission())
+            return fromWorldPermissionStatus.getPermission();
+
+        return null;
+    }
+
+    public void assertPlayerHasPermissionToTp() throws PlayerMissingPermissionException
+    {
+        String missingPermission = getMissingPermissionToTp();
+
+        if(missingPermission != null)
+            throw new PlayerMissingPermissionException(playerId, missingPermission);
+    }
+
+    public boolean playerHasPermissionToTp()
+    {
+        if(fromWorldPermissionStatus != null && !fromWorldPermissionStatus.hasPermission())
+            return false;
+
+        for(PermissionStatus permStatus : fromZonePermissionStatuses)
+            if(!permStatus.hasPermission())
+                return false;
+
+        if(!toWorldPermissionStatus.hasPermission())
+            return false;
+
+        for(PermissionStatus permStatus : toZonePermissionStatuses)
+            if(!permStatus.hasPermission())
+                return false;
+
+        return true;
+    }
+
+    public Map<String, Double> getCosts(boolean checkPlayerHasPermission) throws PlayerMissingPermissionException
+    {
+        long startedAt = System.nanoTime();
+
+        try
+        {
+            Collection<Map<String, Double>> resultParts = new ArrayList<>();
+
+            if(fromWorldPermissionStatus != null)
+                resultParts.add(getCosts(fromWorldPermissionStatus, checkPlayerHasPermission));
+
+            for(PermissionStatus permStatus : fromZonePermissionStatuses)
+                resultParts.add(getCosts(permStatus, checkPlayerHasPermission));
+
+            resultParts.add(getCosts(toWorldPermissionStatus, checkPlayerHasPermission));
+
+            for(PermissionStatus permStatus : toZonePermissionStatuses)
+                resultParts.add(getCosts(permStatus, checkPlayerHasPermission));
+
+            return MapUtils.sumMatchingDoubleValues(resultParts);
+        }
+        finally
+        { HomesMetrics.tpCosts.recordSince(startedAt); }
+    }
+
+    public Map<String, Double> getCosts()
+    {
+        try
+        { return getCosts(false); }
+        catch(PlayerMissingPermissionException e)
+        { throw new RuntimeException("This should never occur.", e); }
+    }
+
+    public Map<String, Double> getCosts(PermissionStatus permStatus, boolean checkPlayerHasPermission)
+            throws PlayerMissingPermissionException
+    { return home.getTpCostsFromPerm(permStatus, checkPlayerHasPermission, distance, isAcrossWorlds); }
+
+    public void chargePlayer() throws Currencies.UnrecognisedCurrencyException, CouldNotAffordToTpHomeException
+    {
+        Map<String, Double> tpCosts = getCosts();
+
+        if(!Currencies.chargePlayer(playerId, tpCosts))
+            throw new CouldNotAffordToTpHomeException(playerId, home.getName(), tpCosts);
+    }
+}
@@ -0,0 +1,89 @@
+package scot.massie.mc.ninti.homes;
+
+import java.util.Collections;
+import java.util.Map;
+
+/*
+ * The result of trying to teleport a player to one of their homes. Where they weren't teleported, says why, as the
+ * exceptions thrown by PlayerHome.requestTpHere would.
+ */
+public final class TpHomeOutcome
+{
+    public enum Kind
+    {
+        TELEPORTED,
+        ALREADY_QUEUED,
+        PLAYER_OFFLINE,
+        NO_SUCH_WORLD,
+        MISSING_PERMISSION,
+        UNRECOGNISED_CURRENCY,
+        COULD_NOT_AFFORD
+    }
+
+    static final TpHomeOutcome teleported = new TpHomeOutcome(Kind.TELEPORTED, null, Collections.emptyMap());
+    static final TpHomeOutcome playerOffline = new TpHomeOutcome(Kind.PLAYER_OFFLINE, null, Collections.emptyMap());
+
+    private TpHomeOutcome(Kind kind, String detail, Map<String, Double> costs)
+    { this(kind, detail, costs, 0, 0); }
+
+    private TpHomeOutcome(Kind kind, String detail, Map<String, Double> costs, int queuePosition, long chunkWaitMillis)
+    {
+        this.kind = kind;
+        this.detail = detail;
+        this.costs = costs;
+        this.queuePosition = queuePosition;
+        this.chunkWaitMillis = chunkWaitMillis;
+    }
+
+    private final Kind kind;
+    private final String detail; // The world ID, permission, or currency name, depending on the kind of outcome.
+    private final Map<String, Double> costs;
+    private final int queuePosition;
+    private final long chunkWaitMillis;
+
+    // Where the player already had a teleport queued, at the given position, so this one wasn't.
+    static TpHomeOutcome alreadyQueued(int queuePosition)
+    { return new TpHomeOutcome(Kind.ALREADY_QUEUED, null, Collections.emptyMap(), queuePosition, 0); }
+
+    static TpHomeOutcome noSuchWorld(String worldId)
+    { return new TpHomeOutcome(Kind.NO_SUCH_WORLD, worldId, Collections.emptyMap()); }
+
+    static TpHomeOutcome missingPermission(String permission)
+    { return new TpHomeOutcome(Kind.MISSING_PERMISSION, permission, Collections.emptyMap()); }
+
+    static TpHomeOutcome unrecognisedCurrency(String currencyName)
+    { return new TpHomeOutcome(Kind.UNRECOGNISED_CURRENCY, currencyName, Collections.emptyMap()); }
+
+    // The costs map is the one calculated for this teleport, and isn't copied.
+    static TpHomeOutcome couldNotAfford(Map<String, Double> costs)
+    { return new TpHomeOutcome(Kind.COULD_NOT_AFFORD, null, Collections.unmodifiableMap(costs)); }
+
+    TpHomeOutcome afterWaitingForChunk(long chunkWaitMillis)
+    { return new TpHomeOutcome(kind, detail, costs, queuePosition, chunkWaitMillis); }
+
+    public Kind getKind()
+    { return kind; }
+
+    public boolean wasTeleported()
+    { return kind == Kind.TELEPORTED; }
+
+    // Where the player already had a teleport queued, its position in the queue, starting at 1. Otherwise, 0.
+    public int getQueuePosition()
+    { return queuePosition; }
+
+    public String getWorldId()
+    { return kind == Kind.NO_SUCH_WORLD ? detail : null; }
+
+    public String getMissingPermission()
+    { return kind == Kind.MISSING_PERMISSION ? detail : null; }
+
+    public String getCurrencyName()
+    { return kind == Kind.UNRECOGNISED_CURRENCY ? detail : null; }
+
+    public Map<String, Double> getCosts()
+    { return costs; }
+
+    // How long was spent waiting for the chunk being teleported to to be loaded, where it wasn't already.
+    public long getChunkWaitMillis()
+    { return chunkWaitMillis; }
+}